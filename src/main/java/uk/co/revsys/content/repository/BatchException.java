@@ -0,0 +1,20 @@
+package uk.co.revsys.content.repository;
+
+import javax.jcr.RepositoryException;
+import uk.co.revsys.content.repository.model.BatchResult;
+
+// Carries how far a batch got, since operations saved before the failure are not rolled back
+public class BatchException extends RepositoryException {
+
+    private final BatchResult result;
+
+    public BatchException(String message, Throwable cause, BatchResult result) {
+        super(message, cause);
+        this.result = result;
+    }
+
+    public BatchResult getResult() {
+        return result;
+    }
+
+}
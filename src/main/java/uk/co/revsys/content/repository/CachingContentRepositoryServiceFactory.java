@@ -1,21 +1,80 @@
 package uk.co.revsys.content.repository;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class CachingContentRepositoryServiceFactory implements ContentRepositoryServiceFactory {
 
-    private Map<String, ContentRepositoryService> instances = new HashMap<String, ContentRepositoryService>();
+    private static final Set<CachingContentRepositoryServiceFactory> FACTORIES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<CachingContentRepositoryServiceFactory, Boolean>()));
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CachingContentRepositoryServiceFactory.class);
+
+    private ConcurrentMap<String, ContentRepositoryService> instances = new ConcurrentHashMap<String, ContentRepositoryService>();
+    private ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    public CachingContentRepositoryServiceFactory() {
+        FACTORIES.add(this);
+    }
 
     @Override
     public ContentRepositoryService getInstance(String workspace) {
         ContentRepositoryService instance = instances.get(workspace);
         if (instance == null) {
-            instance = createInstance(workspace);
-            instances.put(workspace, instance);
+            // Instances own sessions, listeners and background work, so only one may ever be built per workspace
+            synchronized (getLock(workspace)) {
+                instance = instances.get(workspace);
+                if (instance == null) {
+                    instance = createInstance(workspace);
+                    instances.put(workspace, instance);
+                }
+            }
         }
         return instance;
     }
 
     public abstract ContentRepositoryService createInstance(String workspace);
+
+    public void close() {
+        for (String workspace : instances.keySet()) {
+            synchronized (getLock(workspace)) {
+                ContentRepositoryService instance = instances.remove(workspace);
+                if (instance instanceof Closeable) {
+                    try {
+                        ((Closeable) instance).close();
+                    } catch (IOException ex) {
+                        LOGGER.warn("Unable to close repository for workspace " + workspace, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void closeAll() {
+        CachingContentRepositoryServiceFactory[] factories;
+        synchronized (FACTORIES) {
+            factories = FACTORIES.toArray(new CachingContentRepositoryServiceFactory[FACTORIES.size()]);
+        }
+        for (CachingContentRepositoryServiceFactory factory : factories) {
+            factory.close();
+        }
+    }
+
+    private Object getLock(String workspace) {
+        Object lock = locks.get(workspace);
+        if (lock == null) {
+            lock = new Object();
+            Object existing = locks.putIfAbsent(workspace, lock);
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
 }
@@ -0,0 +1,270 @@
+package uk.co.revsys.content.repository;
+
+import uk.co.revsys.content.repository.session.SessionPoolConfig;
+import uk.co.revsys.content.repository.versioning.VersioningConfig;
+
+public class ContentRepositoryConfig {
+
+    private SessionPoolConfig readSessionPoolConfig = new SessionPoolConfig();
+    private SessionPoolConfig writeSessionPoolConfig = new SessionPoolConfig();
+    private int nodeCacheSize = 1000;
+    private int preparedQueryCacheSize = 200;
+    private int maxTreeDepth = 10;
+    private int maxTreeNodes = 1000;
+    private int batchSaveSize = 0;
+    private VersioningConfig versioningConfig = new VersioningConfig();
+    private int backgroundDeleteThreshold = 1000;
+    private int deleteBatchSize = 500;
+    private long trashSweepInterval = 3600000;
+    private int maxSearchResults = 1000;
+    private long facetTimeLimit = 500;
+    private int maxFacetRows = 10000;
+    private long changeFeedDelay = 1000;
+    private int maxChangeFeedSize = 1000;
+    private long changeFeedRetention = 604800000;
+    private int changeLogNodeId = -1;
+    private int maxVersionHistorySize = 100;
+    private boolean spoolUploads = false;
+    private String uploadSpoolDirectory;
+    private String uploadStagingDirectory;
+    private long uploadExpiry = 86400000;
+    private int maxUploadChunks = 10000;
+    private long maxUploadSize = 10737418240L;
+    private int maxDownloadSessions = 64;
+    private long downloadSessionWait = 5000;
+    private long downloadStartTimeout = 60000;
+    private String binaryStoreDirectory;
+
+    public SessionPoolConfig getReadSessionPoolConfig() {
+        return readSessionPoolConfig;
+    }
+
+    public void setReadSessionPoolConfig(SessionPoolConfig readSessionPoolConfig) {
+        this.readSessionPoolConfig = readSessionPoolConfig;
+    }
+
+    public SessionPoolConfig getWriteSessionPoolConfig() {
+        return writeSessionPoolConfig;
+    }
+
+    public void setWriteSessionPoolConfig(SessionPoolConfig writeSessionPoolConfig) {
+        this.writeSessionPoolConfig = writeSessionPoolConfig;
+    }
+
+    public int getNodeCacheSize() {
+        return nodeCacheSize;
+    }
+
+    public void setNodeCacheSize(int nodeCacheSize) {
+        this.nodeCacheSize = nodeCacheSize;
+    }
+
+    public int getPreparedQueryCacheSize() {
+        return preparedQueryCacheSize;
+    }
+
+    public void setPreparedQueryCacheSize(int preparedQueryCacheSize) {
+        this.preparedQueryCacheSize = preparedQueryCacheSize;
+    }
+
+    public int getMaxTreeDepth() {
+        return maxTreeDepth;
+    }
+
+    public void setMaxTreeDepth(int maxTreeDepth) {
+        this.maxTreeDepth = maxTreeDepth;
+    }
+
+    public int getMaxTreeNodes() {
+        return maxTreeNodes;
+    }
+
+    public void setMaxTreeNodes(int maxTreeNodes) {
+        this.maxTreeNodes = maxTreeNodes;
+    }
+
+    public int getBatchSaveSize() {
+        return batchSaveSize;
+    }
+
+    public void setBatchSaveSize(int batchSaveSize) {
+        this.batchSaveSize = batchSaveSize;
+    }
+
+    public VersioningConfig getVersioningConfig() {
+        return versioningConfig;
+    }
+
+    public void setVersioningConfig(VersioningConfig versioningConfig) {
+        this.versioningConfig = versioningConfig;
+    }
+
+    public int getBackgroundDeleteThreshold() {
+        return backgroundDeleteThreshold;
+    }
+
+    public void setBackgroundDeleteThreshold(int backgroundDeleteThreshold) {
+        this.backgroundDeleteThreshold = backgroundDeleteThreshold;
+    }
+
+    public int getDeleteBatchSize() {
+        return deleteBatchSize;
+    }
+
+    public void setDeleteBatchSize(int deleteBatchSize) {
+        this.deleteBatchSize = deleteBatchSize;
+    }
+
+    public long getTrashSweepInterval() {
+        return trashSweepInterval;
+    }
+
+    public void setTrashSweepInterval(long trashSweepInterval) {
+        this.trashSweepInterval = trashSweepInterval;
+    }
+
+    public int getMaxSearchResults() {
+        return maxSearchResults;
+    }
+
+    public void setMaxSearchResults(int maxSearchResults) {
+        this.maxSearchResults = maxSearchResults;
+    }
+
+    public long getFacetTimeLimit() {
+        return facetTimeLimit;
+    }
+
+    public void setFacetTimeLimit(long facetTimeLimit) {
+        this.facetTimeLimit = facetTimeLimit;
+    }
+
+    public int getMaxFacetRows() {
+        return maxFacetRows;
+    }
+
+    public void setMaxFacetRows(int maxFacetRows) {
+        this.maxFacetRows = maxFacetRows;
+    }
+
+    public long getChangeFeedDelay() {
+        return changeFeedDelay;
+    }
+
+    public void setChangeFeedDelay(long changeFeedDelay) {
+        this.changeFeedDelay = changeFeedDelay;
+    }
+
+    public long getChangeFeedRetention() {
+        return changeFeedRetention;
+    }
+
+    public void setChangeFeedRetention(long changeFeedRetention) {
+        this.changeFeedRetention = changeFeedRetention;
+    }
+
+    public int getChangeLogNodeId() {
+        return changeLogNodeId;
+    }
+
+    public void setChangeLogNodeId(int changeLogNodeId) {
+        this.changeLogNodeId = changeLogNodeId;
+    }
+
+    public int getMaxChangeFeedSize() {
+        return maxChangeFeedSize;
+    }
+
+    public void setMaxChangeFeedSize(int maxChangeFeedSize) {
+        this.maxChangeFeedSize = maxChangeFeedSize;
+    }
+
+    public int getMaxVersionHistorySize() {
+        return maxVersionHistorySize;
+    }
+
+    public void setMaxVersionHistorySize(int maxVersionHistorySize) {
+        this.maxVersionHistorySize = maxVersionHistorySize;
+    }
+
+    public boolean isSpoolUploads() {
+        return spoolUploads;
+    }
+
+    public void setSpoolUploads(boolean spoolUploads) {
+        this.spoolUploads = spoolUploads;
+    }
+
+    public String getUploadSpoolDirectory() {
+        return uploadSpoolDirectory;
+    }
+
+    public void setUploadSpoolDirectory(String uploadSpoolDirectory) {
+        this.uploadSpoolDirectory = uploadSpoolDirectory;
+    }
+
+    public String getUploadStagingDirectory() {
+        return uploadStagingDirectory;
+    }
+
+    public void setUploadStagingDirectory(String uploadStagingDirectory) {
+        this.uploadStagingDirectory = uploadStagingDirectory;
+    }
+
+    public long getUploadExpiry() {
+        return uploadExpiry;
+    }
+
+    public void setUploadExpiry(long uploadExpiry) {
+        this.uploadExpiry = uploadExpiry;
+    }
+
+    public int getMaxUploadChunks() {
+        return maxUploadChunks;
+    }
+
+    public void setMaxUploadChunks(int maxUploadChunks) {
+        this.maxUploadChunks = maxUploadChunks;
+    }
+
+    public long getMaxUploadSize() {
+        return maxUploadSize;
+    }
+
+    public void setMaxUploadSize(long maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+    }
+
+    public int getMaxDownloadSessions() {
+        return maxDownloadSessions;
+    }
+
+    public void setMaxDownloadSessions(int maxDownloadSessions) {
+        this.maxDownloadSessions = maxDownloadSessions;
+    }
+
+    public long getDownloadSessionWait() {
+        return downloadSessionWait;
+    }
+
+    public void setDownloadSessionWait(long downloadSessionWait) {
+        this.downloadSessionWait = downloadSessionWait;
+    }
+
+    public long getDownloadStartTimeout() {
+        return downloadStartTimeout;
+    }
+
+    public void setDownloadStartTimeout(long downloadStartTimeout) {
+        this.downloadStartTimeout = downloadStartTimeout;
+    }
+
+    public String getBinaryStoreDirectory() {
+        return binaryStoreDirectory;
+    }
+
+    public void setBinaryStoreDirectory(String binaryStoreDirectory) {
+        this.binaryStoreDirectory = binaryStoreDirectory;
+    }
+
+}
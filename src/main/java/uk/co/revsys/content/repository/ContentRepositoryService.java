@@ -1,13 +1,25 @@
 package uk.co.revsys.content.repository;
 
+import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import javax.jcr.RepositoryException;
 import uk.co.revsys.content.repository.model.AbstractNode;
+import uk.co.revsys.content.repository.model.BatchOperation;
+import uk.co.revsys.content.repository.model.BatchResult;
+import uk.co.revsys.content.repository.binary.BinaryContent;
 import uk.co.revsys.content.repository.model.Binary;
+import uk.co.revsys.content.repository.model.Upload;
 import uk.co.revsys.content.repository.model.BinaryNode;
+import uk.co.revsys.content.repository.model.ChangeFeed;
 import uk.co.revsys.content.repository.model.ContentNode;
+import uk.co.revsys.content.repository.model.ContentQuery;
+import uk.co.revsys.content.repository.model.Facets;
+import uk.co.revsys.content.repository.model.PropertyChange;
+import uk.co.revsys.content.repository.model.DeletionJob;
 import uk.co.revsys.content.repository.model.SearchResult;
+import uk.co.revsys.content.repository.search.SearchResultHandler;
 import uk.co.revsys.content.repository.model.Status;
 import uk.co.revsys.content.repository.model.Version;
 
@@ -15,18 +27,72 @@ public interface ContentRepositoryService {
 
     public AbstractNode get(String path, boolean published) throws RepositoryException;
     
+    public AbstractNode get(String path, boolean published, int childOffset, int childLimit) throws RepositoryException;
+    
+    public AbstractNode get(String path, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException;
+    
+    public AbstractNode getTree(String path, boolean published, int depth) throws RepositoryException;
+    
+    public AbstractNode getTree(String path, boolean published, int depth, Projection projection) throws RepositoryException;
+    
     public ContentNode create(String path, String name, Status status, String tags, String contentType, Map<String, String> properties) throws RepositoryException;
     
     public ContentNode update(String path, Status status, String tags, Map<String, String> properties) throws RepositoryException;
     
     public List<SearchResult> find(String expression, boolean published, int offset, int limit) throws RepositoryException;
     
+    public void find(String expression, boolean published, int offset, int limit, SearchResultHandler handler) throws RepositoryException;
+    
+    public Facets find(String expression, boolean published, int offset, int limit, List<String> facets, SearchResultHandler handler) throws RepositoryException;
+    
+    public String findAfter(String expression, boolean published, String cursor, int limit, SearchResultHandler handler) throws RepositoryException;
+    
+    public List<SearchResult> query(ContentQuery query, boolean published) throws RepositoryException;
+    
+    public Facets query(ContentQuery query, boolean published, SearchResultHandler handler) throws RepositoryException;
+    
+    public List<String> findTagged(List<String> tags, boolean matchAll) throws RepositoryException;
+    
+    public Map<String, Integer> getTagCounts() throws RepositoryException;
+    
+    public ChangeFeed getChanges(long after, int limit) throws RepositoryException;
+    
+    public ChangeFeed getChangesSince(Date since, int limit) throws RepositoryException;
+    
     public void delete(String path) throws RepositoryException;
     
+    public DeletionJob scheduleDelete(String path) throws RepositoryException;
+    
+    public DeletionJob getDeletionJob(String id);
+    
+    public DeletionJob cancelDeletion(String id);
+    
+    public BatchResult batch(List<BatchOperation> operations) throws RepositoryException;
+    
     public List<Version> getVersionHistory(String path) throws RepositoryException;
     
+    public List<Version> getVersionHistory(String path, int offset, int limit) throws RepositoryException;
+    
+    public long getVersionCount(String path) throws RepositoryException;
+    
+    public ContentNode getVersion(String path, String versionName) throws RepositoryException;
+    
+    public List<PropertyChange> diffVersions(String path, String fromVersionName, String toVersionName) throws RepositoryException;
+    
     public BinaryNode saveBinary(String path, String tags, Binary attachment) throws RepositoryException;
     
     public Binary getBinary(String path) throws RepositoryException;
     
+    public BinaryContent openBinary(String path) throws RepositoryException;
+    
+    public Upload initiateUpload(String path, String name, String mimeType, String tags) throws RepositoryException;
+    
+    public Upload uploadChunk(String id, int number, InputStream content) throws RepositoryException;
+    
+    public Upload getUpload(String id);
+    
+    public BinaryNode commitUpload(String id) throws RepositoryException;
+    
+    public Upload abortUpload(String id);
+    
 }
@@ -2,9 +2,19 @@ package uk.co.revsys.content.repository;
 
 public class ContentRepositoryServiceFactoryImpl extends CachingContentRepositoryServiceFactory {
 
+    private final ContentRepositoryConfig config;
+
+    public ContentRepositoryServiceFactoryImpl() {
+        this(new ContentRepositoryConfig());
+    }
+
+    public ContentRepositoryServiceFactoryImpl(ContentRepositoryConfig config) {
+        this.config = config;
+    }
+
     @Override
     public ContentRepositoryService createInstance(String workspace) {
-        return new ContentRepositoryServiceImpl(workspace);
+        return new ContentRepositoryServiceImpl(workspace, config);
     }
 
 }
@@ -1,12 +1,27 @@
 package uk.co.revsys.content.repository;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Pattern;
 import javax.jcr.ItemNotFoundException;
-import javax.jcr.NoSuchWorkspaceException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
@@ -14,8 +29,10 @@ import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 import javax.jcr.nodetype.NodeType;
-import javax.jcr.query.QueryManager;
+import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.Row;
 import javax.jcr.query.RowIterator;
 import javax.jcr.version.VersionHistory;
@@ -25,18 +42,48 @@ import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.UnavailableSecurityManagerException;
 import org.modeshape.jcr.api.query.Query;
 import org.modeshape.jcr.api.query.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.binary.BinaryContent;
+import uk.co.revsys.content.repository.binary.ChunkedUploadManager;
+import uk.co.revsys.content.repository.binary.DownloadSessions;
+import uk.co.revsys.content.repository.binary.FileSystemBinaryStore;
+import uk.co.revsys.content.repository.binary.UploadSpool;
+import uk.co.revsys.content.repository.cache.NodeCache;
+import uk.co.revsys.content.repository.cache.NodeCacheInvalidator;
+import uk.co.revsys.content.repository.changes.ChangeLog;
+import uk.co.revsys.content.repository.deletion.BackgroundDeleter;
 import uk.co.revsys.content.repository.model.AbstractNode;
+import uk.co.revsys.content.repository.model.BatchOperation;
+import uk.co.revsys.content.repository.model.BatchResult;
 import uk.co.revsys.content.repository.model.Binary;
 import uk.co.revsys.content.repository.model.BinaryNode;
 import uk.co.revsys.content.repository.model.ChildNode;
 import uk.co.revsys.content.repository.model.ContainerNode;
+import uk.co.revsys.content.repository.model.Change;
+import uk.co.revsys.content.repository.model.ChangeFeed;
 import uk.co.revsys.content.repository.model.ContentNode;
+import uk.co.revsys.content.repository.model.ContentQuery;
+import uk.co.revsys.content.repository.model.Facets;
+import uk.co.revsys.content.repository.model.PropertyChange;
+import uk.co.revsys.content.repository.model.DeletionJob;
 import uk.co.revsys.content.repository.model.SearchResult;
+import uk.co.revsys.content.repository.search.FacetCounter;
+import uk.co.revsys.content.repository.search.PreparedQueryCache;
+import uk.co.revsys.content.repository.search.SearchCursor;
+import uk.co.revsys.content.repository.search.SearchResultCollector;
+import uk.co.revsys.content.repository.search.SearchResultHandler;
+import uk.co.revsys.content.repository.search.TagIndex;
 import uk.co.revsys.content.repository.model.Status;
+import uk.co.revsys.content.repository.model.Upload;
 import uk.co.revsys.content.repository.model.Version;
+import uk.co.revsys.content.repository.session.SessionFactory;
+import uk.co.revsys.content.repository.session.SessionPool;
+import uk.co.revsys.content.repository.versioning.VersionPruner;
+import uk.co.revsys.content.repository.versioning.Versioner;
 import uk.co.revsys.user.manager.model.User;
 
-public class ContentRepositoryServiceImpl implements ContentRepositoryService {
+public class ContentRepositoryServiceImpl implements ContentRepositoryService, Closeable {
 
     private static final String JCR_PROPERTY_PREFIX = "jcr:";
     private static final String INTERNAL_PROPERTY_PREFIX = "rcr:";
@@ -52,40 +99,187 @@ public class ContentRepositoryServiceImpl implements ContentRepositoryService {
     private static final String INTERNAL_CONTAINER_CONTENT_TYPE = "rcr/container";
     private static final String INTERNAL_BINARY_CONTENT_TYPE = "rcr/binary";
     private static final String INTERNAL_BINARY_FILE_NODE_NAME = INTERNAL_PROPERTY_PREFIX + "file";
+    private static final String INTERNAL_TRASH_NODE_NAME = INTERNAL_PROPERTY_PREFIX + "trash";
+    // Property names are written into statements, so they are limited to characters that cannot end a bracketed name
+    private static final Pattern QUERY_PROPERTY_NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.:-]*");
+    private static final int MAX_TAG_INDEX_BUILDS = 3;
+    private static final String INTERNAL_NODE_EXCLUSION = "NOT ISDESCENDANTNODE([/" + INTERNAL_TRASH_NODE_NAME + "]) AND NOT ISDESCENDANTNODE([/" + ChangeLog.NODE_NAME + "])";
+    private static final String JCR_FROZEN_NODE_NAME = JCR_PROPERTY_PREFIX + "frozenNode";
+    private static final String FACET_CONTENT_TYPE = "contentType";
+    private static final String FACET_STATUS = "status";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ContentRepositoryServiceImpl.class);
 
     private final String workspace;
+    private final SessionPool readSessionPool;
+    private final SessionPool writeSessionPool;
+    private final NodeCache nodeCache;
+    private final NodeCacheInvalidator nodeCacheInvalidator;
+    private final int maxTreeDepth;
+    private final int maxTreeNodes;
+    private final int batchSaveSize;
+    private final Versioner versioner;
+    private final BackgroundDeleter backgroundDeleter;
+    private final VersionPruner versionPruner;
+    private final int backgroundDeleteThreshold;
+    private final int maxSearchResults;
+    private final long facetTimeLimit;
+    private final int maxFacetRows;
+    private final PreparedQueryCache preparedQueryCache;
+    private final TagIndex tagIndex = new TagIndex();
+    private final Object tagIndexLock = new Object();
+    private final ChangeLog changeLog;
+    private final int maxChangeFeedSize;
+    private final int maxVersionHistorySize;
+    private final UploadSpool uploadSpool;
+    private final ChunkedUploadManager uploadManager;
+    private final FileSystemBinaryStore binaryStore;
+    private final DownloadSessions downloadSessions;
+    private volatile Session observationSession;
 
     public ContentRepositoryServiceImpl(String workspace) {
+        this(workspace, new ContentRepositoryConfig());
+    }
+
+    public ContentRepositoryServiceImpl(String workspace, ContentRepositoryConfig config) {
         this.workspace = workspace;
+        SessionFactory sessionFactory = new SessionFactory() {
+
+            @Override
+            public Session createSession() throws RepositoryException {
+                return login();
+            }
+        };
+        this.readSessionPool = new SessionPool(sessionFactory, config.getReadSessionPoolConfig());
+        this.writeSessionPool = new SessionPool(sessionFactory, config.getWriteSessionPoolConfig());
+        this.nodeCache = new NodeCache(config.getNodeCacheSize());
+        this.preparedQueryCache = new PreparedQueryCache(config.getPreparedQueryCacheSize());
+        this.nodeCacheInvalidator = new NodeCacheInvalidator(nodeCache, tagIndex, "/" + INTERNAL_TRASH_NODE_NAME, "/" + ChangeLog.NODE_NAME);
+        this.maxTreeDepth = config.getMaxTreeDepth();
+        this.maxTreeNodes = config.getMaxTreeNodes();
+        this.batchSaveSize = config.getBatchSaveSize();
+        this.versioner = new Versioner(workspace, config.getVersioningConfig(), sessionFactory);
+        this.backgroundDeleter = new BackgroundDeleter(sessionFactory, config.getDeleteBatchSize(), "/" + INTERNAL_TRASH_NODE_NAME, config.getTrashSweepInterval());
+        this.changeLog = new ChangeLog(preparedQueryCache, sessionFactory, config.getChangeFeedDelay(), config.getChangeFeedRetention(), config.getChangeLogNodeId());
+        this.versionPruner = new VersionPruner(sessionFactory, config.getVersioningConfig().getRetention(), "SELECT [jcr:path] FROM [" + NodeType.MIX_VERSIONABLE + "] WHERE " + INTERNAL_NODE_EXCLUSION, changeLog);
+        this.versionPruner.start();
+        this.backgroundDeleteThreshold = config.getBackgroundDeleteThreshold();
+        this.maxSearchResults = config.getMaxSearchResults();
+        this.facetTimeLimit = config.getFacetTimeLimit();
+        this.maxFacetRows = config.getMaxFacetRows();
+        this.maxChangeFeedSize = Math.max(config.getMaxChangeFeedSize(), 1);
+        this.maxVersionHistorySize = Math.max(config.getMaxVersionHistorySize(), 1);
+        this.uploadSpool = config.isSpoolUploads() ? new UploadSpool(config.getUploadSpoolDirectory()) : null;
+        String stagingDirectory = config.getUploadStagingDirectory() == null ? new File(System.getProperty("java.io.tmpdir"), "content-repository-uploads").getPath() : config.getUploadStagingDirectory();
+        this.uploadManager = new ChunkedUploadManager(new File(stagingDirectory), workspace, config.getUploadExpiry(), config.getMaxUploadChunks(), config.getMaxUploadSize());
+        this.binaryStore = config.getBinaryStoreDirectory() == null ? null : new FileSystemBinaryStore(config.getBinaryStoreDirectory());
+        this.downloadSessions = new DownloadSessions(config.getMaxDownloadSessions(), config.getDownloadSessionWait(), config.getDownloadStartTimeout());
     }
 
     @Override
     public AbstractNode get(String path, boolean published) throws RepositoryException {
-        Session session = getSession();
-        try {
-            Node root = session.getRootNode();
-            Node node;
-            if (path == null || path.isEmpty()) {
-                node = root;
-            } else {
-                node = root.getNode(path);
+        return get(path, published, 0, 0);
+    }
+
+    @Override
+    public AbstractNode get(String path, boolean published, int childOffset, int childLimit) throws RepositoryException {
+        return get(path, published, childOffset, childLimit, Projection.ALL);
+    }
+
+    @Override
+    public AbstractNode get(String path, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException {
+        String absolutePath = getAbsolutePath(path);
+        String variant = published + ":" + childOffset + ":" + childLimit + ":" + projection.getKey();
+        boolean cacheable = nodeCache.isEnabled() && startObservation();
+        AbstractNode nodeWrapper = null;
+        if (cacheable) {
+            nodeWrapper = nodeCache.get(absolutePath, variant);
+        }
+        if (nodeWrapper == null) {
+            long generation = nodeCache.getGeneration();
+            Session session = getReadSession();
+            try {
+                Node node = getNode(session, path);
+                nodeWrapper = createNodeWrapper(node, published, childOffset, childLimit, projection);
+            } finally {
+                releaseReadSession(session);
+            }
+            if (cacheable) {
+                nodeCache.put(absolutePath, variant, nodeWrapper, generation);
             }
-            AbstractNode nodeWrapper = createNodeWrapper(node, published);
-            if(published && !nodeWrapper.getStatus().equals(Status.published)){
+        }
+        if (published && !nodeWrapper.getStatus().equals(Status.published)) {
+            throw new PathNotFoundException(path);
+        }
+        return nodeWrapper;
+    }
+
+    @Override
+    public AbstractNode getTree(String path, boolean published, int depth) throws RepositoryException {
+        return getTree(path, published, depth, Projection.ALL);
+    }
+
+    @Override
+    public AbstractNode getTree(String path, boolean published, int depth, Projection projection) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            Node node = getNode(session, path);
+            // Every listed child counts against maxTreeNodes, whether or not it is expanded
+            int budget = maxTreeNodes - 1;
+            AbstractNode nodeWrapper = createNodeWrapper(node, published, 0, Math.max(budget, 1), projection);
+            if (published && !nodeWrapper.getStatus().equals(Status.published)) {
                 throw new PathNotFoundException(path);
             }
+            if (nodeWrapper instanceof ContainerNode) {
+                ContainerNode root = (ContainerNode) nodeWrapper;
+                budget -= getListedCount(root);
+                expandTree(session, root, published, Math.min(depth, maxTreeDepth), projection, budget);
+            }
             return nodeWrapper;
         } finally {
-            session.logout();
+            releaseReadSession(session);
         }
     }
 
+    private void expandTree(Session session, ContainerNode root, boolean published, int depth, Projection projection, int budget) throws RepositoryException {
+        List<ContainerNode> level = new ArrayList<ContainerNode>();
+        level.add(root);
+        for (int i = 0; i < depth && !level.isEmpty(); i++) {
+            List<ContainerNode> nextLevel = new ArrayList<ContainerNode>();
+            for (ContainerNode container : level) {
+                if (container.getChildren() == null) {
+                    continue;
+                }
+                for (ChildNode childNode : container.getChildren()) {
+                    // A child limit of zero would list every child, so expansion stops once the budget is spent
+                    if (budget <= 0) {
+                        root.setTruncated(true);
+                        return;
+                    }
+                    AbstractNode childWrapper = createNodeWrapper(session.getNode(childNode.getPath()), published, 0, budget, projection);
+                    childNode.setNode(childWrapper);
+                    if (childWrapper instanceof ContainerNode) {
+                        budget -= getListedCount((ContainerNode) childWrapper);
+                        nextLevel.add((ContainerNode) childWrapper);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+    }
+
+    private int getListedCount(ContainerNode container) {
+        return container.getChildren() == null ? 0 : container.getChildren().size();
+    }
+
     @Override
     public ContentNode create(String path, String name, Status status, String tags, String contentType, Map<String, String> properties) throws RepositoryException {
-        Session session = getSession();
+        Session session = getWriteSession();
         try {
             Node root = session.getRootNode();
             Node parentNode;
+            boolean parentCreated = false;
+            checkContentPath(path);
             if (path == null || path.isEmpty()) {
                 parentNode = root;
             } else {
@@ -93,34 +287,37 @@ public class ContentRepositoryServiceImpl implements ContentRepositoryService {
                     parentNode = root.getNode(path);
                 } else {
                     parentNode = root.addNode(path);
+                    parentCreated = true;
+                    changeLog.record(session, Change.Type.created, parentNode.getPath());
                 }
             }
             VersionManager versionManager = session.getWorkspace().getVersionManager();
-            if (parentNode.isNodeType("mix:versionable")) {
-                versionManager.checkout(parentNode.getPath());
-            }
-            Node node = createNode(parentNode, name, status, tags);
+            versioner.checkout(versionManager, parentNode);
+            Node node = createNode(parentNode, name, status, tags, contentType);
             for (Entry<String, String> property : properties.entrySet()) {
                 node.setProperty(property.getKey(), property.getValue());
             }
             node.setProperty(INTERNAL_CONTENT_TYPE_PROPERTY, contentType);
+            changeLog.record(session, Change.Type.created, node.getPath());
             session.save();
-            if (parentNode.isNodeType("mix:versionable")) {
-                versionManager.checkin(parentNode.getPath());
+            if (parentCreated) {
+                nodeCacheInvalidator.invalidateNode(parentNode.getPath());
             }
-            return createContentNodeWrapper(node, false);
+            nodeCacheInvalidator.invalidateNode(node.getPath());
+            versioner.checkin(versionManager, parentNode, getContentType(parentNode), true);
+            return createContentNodeWrapper(node, false, 0, 0, Projection.ALL);
         } finally {
-            session.logout();
+            releaseWriteSession(session);
         }
     }
 
-    private Node createNode(Node parentNode, String name, Status status, String tags) throws RepositoryException {
+    private Node createNode(Node parentNode, String name, Status status, String tags, String contentType) throws RepositoryException {
         Node node = parentNode.addNode(name);
-        node.addMixin("mix:versionable");
+        versioner.makeVersionable(node, contentType);
         node.setProperty(INTERNAL_CREATED_PROPERTY, Calendar.getInstance());
         node.setProperty(INTERNAL_MODIFIED_PROPERTY, Calendar.getInstance());
         node.setProperty(INTERNAL_STATUS_PROPERTY, status.name());
-        node.setProperty(INTERNAL_TAGS_PROPERTY, tags);
+        setTags(node, tags);
         try {
             User user = SecurityUtils.getSubject().getPrincipals().oneByType(User.class);
             node.setProperty(INTERNAL_CREATED_BY_ID_PROPERTY, user.getId());
@@ -138,29 +335,74 @@ public class ContentRepositoryServiceImpl implements ContentRepositoryService {
 
     @Override
     public ContentNode update(String path, Status status, String tags, Map<String, String> properties) throws RepositoryException {
-        Session session = getSession();
+        Session session = getWriteSession();
         try {
-            Node root = session.getRootNode();
-            Node node = root.getNode(path);
+            Node node = getNode(session, path);
             VersionManager manager = session.getWorkspace().getVersionManager();
-            manager.checkout(node.getPath());
+            versioner.checkout(manager, node);
             updateNode(node, status, tags);
             for (Entry<String, String> property : properties.entrySet()) {
                 node.setProperty(property.getKey(), property.getValue());
             }
             node.setProperty(INTERNAL_MODIFIED_PROPERTY, Calendar.getInstance());
+            changeLog.record(session, Change.Type.updated, node.getPath());
             session.save();
-            manager.checkin(node.getPath());
-            return createContentNodeWrapper(node, false);
+            nodeCacheInvalidator.invalidateNode(node.getPath());
+            versioner.checkin(manager, node, getContentType(node), false);
+            return createContentNodeWrapper(node, false, 0, 0, Projection.ALL);
         } finally {
-            session.logout();
+            releaseWriteSession(session);
+        }
+    }
+
+    private void setTags(Node node, String tags) throws RepositoryException {
+        // Tags used to be stored as a single string, which cannot be overwritten with multiple values
+        if (node.hasProperty(INTERNAL_TAGS_PROPERTY) && !node.getProperty(INTERNAL_TAGS_PROPERTY).isMultiple()) {
+            node.getProperty(INTERNAL_TAGS_PROPERTY).remove();
+        }
+        node.setProperty(INTERNAL_TAGS_PROPERTY, parseTags(tags).toArray(new String[0]));
+    }
+
+    private Set<String> parseTags(String tags) {
+        Set<String> tagSet = new LinkedHashSet<String>();
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                tag = tag.trim();
+                if (!tag.isEmpty()) {
+                    tagSet.add(tag);
+                }
+            }
+        }
+        return tagSet;
+    }
+
+    private Set<String> getTags(Node node) throws RepositoryException {
+        Property property = node.getProperty(INTERNAL_TAGS_PROPERTY);
+        if (!property.isMultiple()) {
+            return parseTags(property.getString());
+        }
+        Set<String> tags = new LinkedHashSet<String>();
+        for (Value value : property.getValues()) {
+            tags.add(value.getString());
+        }
+        return tags;
+    }
+
+    private String formatTags(Set<String> tags) {
+        StringBuilder tagString = new StringBuilder();
+        for (String tag : tags) {
+            if (tagString.length() > 0) {
+                tagString.append(", ");
+            }
+            tagString.append(tag);
         }
+        return tagString.toString();
     }
 
     private void updateNode(Node node, Status status, String tags) throws RepositoryException {
         node.setProperty(INTERNAL_MODIFIED_PROPERTY, Calendar.getInstance());
         node.setProperty(INTERNAL_STATUS_PROPERTY, status.name());
-        node.setProperty(INTERNAL_TAGS_PROPERTY, tags);
+        setTags(node, tags);
         try {
             User user = SecurityUtils.getSubject().getPrincipals().oneByType(User.class);
             node.setProperty(INTERNAL_MODIFIED_BY_ID_PROPERTY, user.getId());
@@ -173,102 +415,740 @@ public class ContentRepositoryServiceImpl implements ContentRepositoryService {
 
     @Override
     public void delete(String path) throws RepositoryException {
-        Session session = getSession();
+        Session session = getWriteSession();
+        try {
+            deleteNode(session, getNode(session, path));
+        } finally {
+            releaseWriteSession(session);
+        }
+    }
+
+    private void deleteNode(Session session, Node node) throws RepositoryException {
+        Node parentNode = node.getParent();
+        VersionManager versionManager = session.getWorkspace().getVersionManager();
+        versioner.checkout(versionManager, parentNode);
+        String nodePath = node.getPath();
+        node.remove();
+        changeLog.record(session, Change.Type.deleted, nodePath);
+        session.save();
+        nodeCacheInvalidator.invalidateTree(nodePath);
+        versioner.checkin(versionManager, parentNode, getContentType(parentNode), true);
+    }
+
+    @Override
+    public DeletionJob scheduleDelete(String path) throws RepositoryException {
+        Session session = getWriteSession();
         try {
             Node root = session.getRootNode();
-            Node node = root.getNode(path);
+            Node node = getNode(session, path);
+            if (backgroundDeleteThreshold <= 0 || countDescendants(node, backgroundDeleteThreshold) < backgroundDeleteThreshold) {
+                deleteNode(session, node);
+                return null;
+            }
+            // Move the subtree out of sight straight away, then remove it in the background
+            Node trashNode;
+            if (root.hasNode(INTERNAL_TRASH_NODE_NAME)) {
+                trashNode = root.getNode(INTERNAL_TRASH_NODE_NAME);
+            } else {
+                trashNode = root.addNode(INTERNAL_TRASH_NODE_NAME);
+            }
             Node parentNode = node.getParent();
             VersionManager versionManager = session.getWorkspace().getVersionManager();
-            if (parentNode.isNodeType("mix:versionable")) {
-                versionManager.checkout(parentNode.getPath());
-            }
-            node.remove();
+            versioner.checkout(versionManager, parentNode);
+            String id = UUID.randomUUID().toString();
+            String nodePath = node.getPath();
+            String trashPath = trashNode.getPath() + "/" + id;
+            session.move(nodePath, trashPath);
+            changeLog.record(session, Change.Type.deleted, nodePath);
             session.save();
-            if (parentNode.isNodeType("mix:versionable")) {
-                versionManager.checkin(parentNode.getPath());
+            nodeCacheInvalidator.invalidateTree(nodePath);
+            versioner.checkin(versionManager, parentNode, getContentType(parentNode), true);
+            return backgroundDeleter.submit(id, nodePath, trashPath);
+        } finally {
+            releaseWriteSession(session);
+        }
+    }
+
+    private long countDescendants(Node node, long limit) throws RepositoryException {
+        long count = 0;
+        LinkedList<NodeIterator> iterators = new LinkedList<NodeIterator>();
+        iterators.push(node.getNodes());
+        while (!iterators.isEmpty() && count < limit) {
+            NodeIterator iterator = iterators.peek();
+            if (iterator.hasNext()) {
+                count++;
+                iterators.push(iterator.nextNode().getNodes());
+            } else {
+                iterators.pop();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public DeletionJob getDeletionJob(String id) {
+        return backgroundDeleter.getJob(id);
+    }
+
+    @Override
+    public DeletionJob cancelDeletion(String id) {
+        return backgroundDeleter.cancel(id);
+    }
+
+    @Override
+    public BatchResult batch(List<BatchOperation> operations) throws RepositoryException {
+        Session session = getWriteSession();
+        Map<String, Boolean> checkedOut = new LinkedHashMap<String, Boolean>();
+        List<String> changedPaths = new LinkedList<String>();
+        List<String> removedPaths = new LinkedList<String>();
+        BatchResult result = new BatchResult();
+        int index = 0;
+        boolean failed = true;
+        try {
+            Node root = session.getRootNode();
+            VersionManager versionManager = session.getWorkspace().getVersionManager();
+            int unsaved = 0;
+            for (BatchOperation operation : operations) {
+                switch (operation.getType()) {
+                    case create: {
+                        Node parentNode;
+                        checkContentPath(operation.getPath());
+                        if (operation.getPath() == null || operation.getPath().isEmpty()) {
+                            parentNode = root;
+                        } else if (root.hasNode(operation.getPath())) {
+                            parentNode = root.getNode(operation.getPath());
+                        } else {
+                            parentNode = root.addNode(operation.getPath());
+                            changedPaths.add(parentNode.getPath());
+                            changeLog.record(session, Change.Type.created, parentNode.getPath());
+                        }
+                        checkoutOnce(versionManager, parentNode, checkedOut, true);
+                        Node node = createNode(parentNode, operation.getName(), operation.getStatus(), operation.getTags(), operation.getContentType());
+                        for (Entry<String, String> property : operation.getProperties().entrySet()) {
+                            node.setProperty(property.getKey(), property.getValue());
+                        }
+                        node.setProperty(INTERNAL_CONTENT_TYPE_PROPERTY, operation.getContentType());
+                        changedPaths.add(node.getPath());
+                        changeLog.record(session, Change.Type.created, node.getPath());
+                        result.setCreated(result.getCreated() + 1);
+                        break;
+                    }
+                    case update: {
+                        Node node = getNode(session, operation.getPath());
+                        checkoutOnce(versionManager, node, checkedOut, false);
+                        updateNode(node, operation.getStatus(), operation.getTags());
+                        for (Entry<String, String> property : operation.getProperties().entrySet()) {
+                            node.setProperty(property.getKey(), property.getValue());
+                        }
+                        node.setProperty(INTERNAL_MODIFIED_PROPERTY, Calendar.getInstance());
+                        changedPaths.add(node.getPath());
+                        changeLog.record(session, Change.Type.updated, node.getPath());
+                        result.setUpdated(result.getUpdated() + 1);
+                        break;
+                    }
+                    case delete: {
+                        Node node = getNode(session, operation.getPath());
+                        checkoutOnce(versionManager, node.getParent(), checkedOut, true);
+                        removedPaths.add(node.getPath());
+                        changeLog.record(session, Change.Type.deleted, node.getPath());
+                        node.remove();
+                        result.setDeleted(result.getDeleted() + 1);
+                        break;
+                    }
+                    default:
+                        throw new RepositoryException("Unsupported batch operation " + operation.getType());
+                }
+                unsaved++;
+                if (batchSaveSize > 0 && unsaved >= batchSaveSize) {
+                    session.save();
+                    result.setSaves(result.getSaves() + 1);
+                    unsaved = 0;
+                }
+                index++;
+            }
+            if (session.hasPendingChanges()) {
+                // A failure here belongs to the last operation, since it is the one whose save did not go through
+                index = operations.size() - 1;
+                session.save();
+                result.setSaves(result.getSaves() + 1);
             }
+            failed = false;
+            return result;
+        } catch (RepositoryException ex) {
+            result.setFailedIndex(index);
+            result.setError(ex.getMessage());
+            throw new BatchException("Batch operation " + index + " failed after " + result.getSaves() + " saves: " + ex.getMessage(), ex, result);
         } finally {
-            session.logout();
+            try {
+                if (failed) {
+                    // Unsaved operations are discarded so that what was checked out can be checked in as it was last saved
+                    session.refresh(false);
+                }
+                for (String path : removedPaths) {
+                    nodeCacheInvalidator.invalidateTree(path);
+                }
+                for (String path : changedPaths) {
+                    nodeCacheInvalidator.invalidateNode(path);
+                }
+                VersionManager versionManager = session.getWorkspace().getVersionManager();
+                for (Entry<String, Boolean> entry : checkedOut.entrySet()) {
+                    try {
+                        if (session.nodeExists(entry.getKey())) {
+                            Node node = session.getNode(entry.getKey());
+                            versioner.checkin(versionManager, node, getContentType(node), entry.getValue());
+                        }
+                    } catch (RepositoryException ex) {
+                        LOGGER.warn("Unable to check in " + entry.getKey() + " after batch", ex);
+                    }
+                }
+            } catch (RepositoryException ex) {
+                LOGGER.warn("Unable to finish batch", ex);
+            } finally {
+                releaseWriteSession(session);
+            }
+        }
+    }
+
+    private void checkoutOnce(VersionManager versionManager, Node node, Map<String, Boolean> checkedOut, boolean parentCheckpoint) throws RepositoryException {
+        String path = node.getPath();
+        Boolean existing = checkedOut.get(path);
+        if (existing == null) {
+            versioner.checkout(versionManager, node);
+            checkedOut.put(path, parentCheckpoint);
+        } else if (!parentCheckpoint) {
+            checkedOut.put(path, false);
         }
     }
 
+    private String getContentType(Node node) throws RepositoryException {
+        if (node.hasProperty(INTERNAL_CONTENT_TYPE_PROPERTY)) {
+            return node.getProperty(INTERNAL_CONTENT_TYPE_PROPERTY).getString();
+        }
+        return null;
+    }
+
     @Override
     public List<SearchResult> find(String expression, boolean published, int offset, int limit) throws RepositoryException {
-        Session session = getSession();
+        SearchResultCollector collector = new SearchResultCollector();
+        find(expression, published, offset, limit, collector);
+        return collector.getResults();
+    }
+
+    @Override
+    public void find(String expression, boolean published, int offset, int limit, SearchResultHandler handler) throws RepositoryException {
+        find(expression, published, offset, limit, null, handler);
+    }
+
+    @Override
+    public Facets find(String expression, boolean published, int offset, int limit, List<String> facets, SearchResultHandler handler) throws RepositoryException {
+        Session session = getReadSession();
         try {
-            QueryManager queryManager = session.getWorkspace().getQueryManager();
-            //String language = Query.FULL_TEXT_SEARCH;
-            //Query query = (Query) queryManager.createQuery(expression, language);
-            String language = Query.JCR_SQL2;
-            String queryString = "SELECT * FROM [nt:unstructured] WHERE CONTAINS(., '" + expression + "')";
-            Query query = (Query) queryManager.createQuery(queryString, language);
-            if (offset >= 0) {
-                query.setOffset(offset);
-            }
-            if (limit > 0) {
-                query.setLimit(limit);
-            }
-            QueryResult result = (QueryResult) query.execute();
-            RowIterator rowIterator = result.getRows();
-            List<SearchResult> results = new LinkedList<SearchResult>();
+            Map<String, Value> bindings = new HashMap<String, Value>();
+            String queryString = getFindQuery(session, expression, published, bindings);
+            return executeQuery(session, queryString, bindings, published, offset, limit, facets, handler);
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    @Override
+    public String findAfter(String expression, boolean published, String cursor, int limit, SearchResultHandler handler) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            Map<String, Value> bindings = new HashMap<String, Value>();
+            String queryString = getFindQuery(session, expression, published, bindings);
+            // Plain containers have no modification date, so they cannot be keyed and are left out of paged results
+            queryString = queryString + " AND [" + INTERNAL_MODIFIED_PROPERTY + "] IS NOT NULL";
+            // Seek past the last row of the previous page instead of skipping over every earlier row
+            // Scores shift as the index changes, so pages are keyed on the modification date and path instead
+            if (cursor != null && !cursor.isEmpty()) {
+                SearchCursor searchCursor = SearchCursor.decode(cursor);
+                Calendar cursorModified = Calendar.getInstance();
+                cursorModified.setTimeInMillis(searchCursor.getModified());
+                queryString = queryString + " AND ([" + INTERNAL_MODIFIED_PROPERTY + "] < $cursorModified OR ([" + INTERNAL_MODIFIED_PROPERTY + "] = $cursorModified AND [jcr:path] > $cursorPath))";
+                bindings.put("cursorModified", session.getValueFactory().createValue(cursorModified));
+                bindings.put("cursorPath", session.getValueFactory().createValue(searchCursor.getPath()));
+            }
+            queryString = queryString + " ORDER BY [" + INTERNAL_MODIFIED_PROPERTY + "] DESC, [jcr:path]";
+            Query query = preparedQueryCache.prepare(session, queryString);
+            for (Entry<String, Value> binding : bindings.entrySet()) {
+                query.bindValue(binding.getKey(), binding.getValue());
+            }
+            int pageSize = getPageSize(limit);
+            query.setOffset(0);
+            // One extra row tells us whether there is a next page
+            query.setLimit(pageSize > 0 ? pageSize + 1 : Long.MAX_VALUE);
+            RowIterator rowIterator = preparedQueryCache.execute(query).getRows();
+            int count = 0;
+            SearchCursor last = null;
             while (rowIterator.hasNext()) {
                 Row row = rowIterator.nextRow();
+                if (pageSize > 0 && count == pageSize) {
+                    return last.encode();
+                }
                 Node node = row.getNode();
-                AbstractNode nodeWrapper = createNodeWrapper(node, published);
-                if (!published || nodeWrapper.getStatus().equals(Status.published)) {
-                    SearchResult searchResult = new SearchResult();
-                    searchResult.setScore(row.getScore());
-                    searchResult.setNode(createNodeWrapper(node, published));
-                    results.add(searchResult);
+                SearchResult searchResult = new SearchResult();
+                searchResult.setScore(row.getScore());
+                searchResult.setNode(createNodeWrapper(node, published));
+                handler.handle(searchResult);
+                last = new SearchCursor(node.getProperty(INTERNAL_MODIFIED_PROPERTY).getDate().getTimeInMillis(), node.getPath());
+                count++;
+            }
+            return null;
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    private String getFindQuery(Session session, String expression, boolean published, Map<String, Value> bindings) throws RepositoryException {
+        String queryString = "SELECT * FROM [nt:unstructured] WHERE CONTAINS(., $expression) AND " + INTERNAL_NODE_EXCLUSION;
+        ValueFactory valueFactory = session.getValueFactory();
+        bindings.put("expression", valueFactory.createValue(expression));
+        if (published) {
+            // Filter in the query so that offset and limit count published nodes only
+            queryString = queryString + " AND [" + INTERNAL_STATUS_PROPERTY + "] = $status";
+            bindings.put("status", valueFactory.createValue(Status.published.name()));
+        }
+        return queryString;
+    }
+
+    private int getPageSize(int limit) {
+        if (limit <= 0 || (maxSearchResults > 0 && limit > maxSearchResults)) {
+            return maxSearchResults;
+        }
+        return limit;
+    }
+
+    @Override
+    public List<SearchResult> query(ContentQuery contentQuery, boolean published) throws RepositoryException {
+        SearchResultCollector collector = new SearchResultCollector();
+        query(contentQuery, published, collector);
+        return collector.getResults();
+    }
+
+    @Override
+    public Facets query(ContentQuery contentQuery, boolean published, SearchResultHandler handler) throws RepositoryException {
+        if (published && contentQuery.getStatus() == Status.draft) {
+            return contentQuery.getFacets() == null || contentQuery.getFacets().isEmpty() ? null : new Facets();
+        }
+        Session session = getReadSession();
+        try {
+            ValueFactory valueFactory = session.getValueFactory();
+            Map<String, Value> bindings = new HashMap<String, Value>();
+            // Only the shape of the query goes into the statement so that it can be prepared once and reused
+            StringBuilder queryString = new StringBuilder("SELECT * FROM [nt:unstructured] WHERE " + INTERNAL_NODE_EXCLUSION);
+            if (contentQuery.getPath() != null && !contentQuery.getPath().isEmpty()) {
+                String path = getNode(session, contentQuery.getPath()).getPath();
+                // Bound rather than written into the statement, so every path shares one prepared query
+                queryString.append(" AND [jcr:path] LIKE $descendants");
+                bindings.put("descendants", valueFactory.createValue(escapeLike(path) + "/%"));
+            }
+            if (contentQuery.getContentType() != null) {
+                queryString.append(" AND [").append(INTERNAL_CONTENT_TYPE_PROPERTY).append("] = $contentType");
+                bindings.put("contentType", valueFactory.createValue(contentQuery.getContentType()));
+            }
+            Status status = published ? Status.published : contentQuery.getStatus();
+            if (status != null) {
+                queryString.append(" AND [").append(INTERNAL_STATUS_PROPERTY).append("] = $status");
+                bindings.put("status", valueFactory.createValue(status.name()));
+            }
+            if (contentQuery.getTags() != null) {
+                int index = 0;
+                for (String tag : contentQuery.getTags()) {
+                    queryString.append(" AND [").append(INTERNAL_TAGS_PROPERTY).append("] = $tag").append(index);
+                    bindings.put("tag" + index, valueFactory.createValue(tag));
+                    index++;
+                }
+            }
+            appendRange(queryString, bindings, valueFactory, INTERNAL_CREATED_PROPERTY, "created", contentQuery.getCreatedFrom(), contentQuery.getCreatedTo());
+            appendRange(queryString, bindings, valueFactory, INTERNAL_MODIFIED_PROPERTY, "modified", contentQuery.getModifiedFrom(), contentQuery.getModifiedTo());
+            if (contentQuery.getProperties() != null) {
+                int index = 0;
+                for (Entry<String, String> property : new TreeMap<String, String>(contentQuery.getProperties()).entrySet()) {
+                    queryString.append(" AND [").append(getQueryPropertyName(property.getKey())).append("] = $property").append(index);
+                    bindings.put("property" + index, valueFactory.createValue(property.getValue()));
+                    index++;
                 }
             }
-            return results;
+            if (contentQuery.getOrderBy() != null) {
+                queryString.append(" ORDER BY ").append(getQueryOrdering(contentQuery.getOrderBy()));
+                if (contentQuery.getOrder() == ContentQuery.Order.desc) {
+                    queryString.append(" DESC");
+                }
+            }
+            return executeQuery(session, queryString.toString(), bindings, published, contentQuery.getOffset(), contentQuery.getLimit(), contentQuery.getFacets(), handler);
         } finally {
-            session.logout();
+            releaseReadSession(session);
         }
     }
 
+    private void appendRange(StringBuilder queryString, Map<String, Value> bindings, ValueFactory valueFactory, String propertyName, String variable, Date from, Date to) {
+        if (from != null) {
+            queryString.append(" AND [").append(propertyName).append("] >= $").append(variable).append("From");
+            bindings.put(variable + "From", valueFactory.createValue(toCalendar(from)));
+        }
+        if (to != null) {
+            queryString.append(" AND [").append(propertyName).append("] < $").append(variable).append("To");
+            bindings.put(variable + "To", valueFactory.createValue(toCalendar(to)));
+        }
+    }
+
+    private Calendar toCalendar(Date date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return calendar;
+    }
+
+    private String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private String getQueryPropertyName(String name) throws InvalidQueryException {
+        if (!QUERY_PROPERTY_NAME.matcher(name).matches() || name.startsWith(JCR_PROPERTY_PREFIX) || name.startsWith(INTERNAL_PROPERTY_PREFIX)) {
+            throw new InvalidQueryException("Unsupported property " + name);
+        }
+        return name;
+    }
+
+    private String getQueryOrdering(String orderBy) throws InvalidQueryException {
+        if (orderBy.equals(Projection.CREATED)) {
+            return "[" + INTERNAL_CREATED_PROPERTY + "]";
+        } else if (orderBy.equals(Projection.MODIFIED)) {
+            return "[" + INTERNAL_MODIFIED_PROPERTY + "]";
+        } else if (orderBy.equals("name")) {
+            return "NAME()";
+        } else if (orderBy.startsWith(Projection.PROPERTIES + ".")) {
+            return "[" + getQueryPropertyName(orderBy.substring(Projection.PROPERTIES.length() + 1)) + "]";
+        }
+        throw new InvalidQueryException("Unsupported ordering " + orderBy);
+    }
+
+    private Facets executeQuery(Session session, String queryString, Map<String, Value> bindings, boolean published, int offset, int limit, List<String> facets, SearchResultHandler handler) throws RepositoryException {
+        Map<String, String> facetProperties = new LinkedHashMap<String, String>();
+        if (facets != null) {
+            for (String facet : facets) {
+                facetProperties.put(facet, getFacetPropertyName(facet));
+            }
+        }
+        Query query = preparedQueryCache.prepare(session, queryString);
+        for (Entry<String, Value> binding : bindings.entrySet()) {
+            query.bindValue(binding.getKey(), binding.getValue());
+        }
+        offset = Math.max(offset, 0);
+        limit = getPageSize(limit);
+        long end = limit > 0 ? (long) offset + limit : Long.MAX_VALUE;
+        FacetCounter facetCounter = null;
+        // Prepared queries are reused, so offset and limit are always reset
+        if (facetProperties.isEmpty()) {
+            query.setOffset(offset);
+            query.setLimit(limit > 0 ? limit : Long.MAX_VALUE);
+        } else {
+            // Facets are counted over the whole result set, so the page is cut out while iterating
+            facetCounter = new FacetCounter(new ArrayList<String>(facetProperties.keySet()), facetTimeLimit, maxFacetRows);
+            query.setOffset(0);
+            query.setLimit(Long.MAX_VALUE);
+        }
+        QueryResult result = preparedQueryCache.execute(query);
+        RowIterator rowIterator = result.getRows();
+        long position = facetCounter == null ? offset : 0;
+        while (rowIterator.hasNext()) {
+            boolean counting = facetCounter != null && facetCounter.isCounting();
+            if (position >= end && !counting) {
+                break;
+            }
+            Row row = rowIterator.nextRow();
+            Node node = row.getNode();
+            if (counting) {
+                facetCounter.countRow();
+                for (Entry<String, String> facet : facetProperties.entrySet()) {
+                    for (String value : getFacetValues(node, facet.getValue())) {
+                        facetCounter.count(facet.getKey(), value);
+                    }
+                }
+            }
+            if (position >= offset && position < end) {
+                SearchResult searchResult = new SearchResult();
+                searchResult.setScore(row.getScore());
+                searchResult.setNode(createNodeWrapper(node, published));
+                handler.handle(searchResult);
+            }
+            position++;
+        }
+        return facetCounter == null ? null : facetCounter.getFacets();
+    }
+
+    private String getFacetPropertyName(String facet) throws InvalidQueryException {
+        if (facet.equals(FACET_CONTENT_TYPE)) {
+            return INTERNAL_CONTENT_TYPE_PROPERTY;
+        } else if (facet.equals(FACET_STATUS)) {
+            return INTERNAL_STATUS_PROPERTY;
+        } else if (facet.equals(Projection.TAGS)) {
+            return INTERNAL_TAGS_PROPERTY;
+        } else if (facet.startsWith(Projection.PROPERTIES + ".")) {
+            return getQueryPropertyName(facet.substring(Projection.PROPERTIES.length() + 1));
+        }
+        throw new InvalidQueryException("Unsupported facet " + facet);
+    }
+
+    private Collection<String> getFacetValues(Node node, String propertyName) throws RepositoryException {
+        if (!node.hasProperty(propertyName)) {
+            return Collections.<String>emptySet();
+        }
+        if (propertyName.equals(INTERNAL_TAGS_PROPERTY)) {
+            return getTags(node);
+        }
+        return Collections.singleton(node.getProperty(propertyName).getString());
+    }
+
     @Override
-    public List getVersionHistory(String path) throws RepositoryException {
-        if (!path.startsWith("/")) {
-            path = "/" + path;
+    public List<String> findTagged(List<String> tags, boolean matchAll) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            return new ArrayList<String>(refreshTagIndex(session).getPaths(tags, matchAll));
+        } finally {
+            releaseReadSession(session);
         }
-        Session session = getSession();
+    }
+
+    @Override
+    public Map<String, Integer> getTagCounts() throws RepositoryException {
+        Session session = getReadSession();
         try {
-            List<Version> versions = new LinkedList<Version>();
-            VersionManager versionManager = session.getWorkspace().getVersionManager();
-            VersionHistory versionHistory = versionManager.getVersionHistory(path);
+            return refreshTagIndex(session).getCounts();
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    private TagIndex refreshTagIndex(Session session) throws RepositoryException {
+        // One refresh at a time, so that a slow reader cannot index a path after a later refresh has already applied a newer change
+        synchronized (tagIndexLock) {
+            int attempts = 0;
+            while (!tagIndex.isBuilt()) {
+                if (++attempts > MAX_TAG_INDEX_BUILDS) {
+                    throw new RepositoryException("Unable to build the tag index while workspace " + workspace + " is changing");
+                }
+                int generation = tagIndex.startBuild();
+                try {
+                    Query query = preparedQueryCache.prepare(session, "SELECT * FROM [nt:unstructured] WHERE [" + INTERNAL_TAGS_PROPERTY + "] IS NOT NULL AND " + INTERNAL_NODE_EXCLUSION);
+                    query.setOffset(0);
+                    query.setLimit(Long.MAX_VALUE);
+                    NodeIterator iterator = preparedQueryCache.execute(query).getNodes();
+                    Map<String, Set<String>> entries = new HashMap<String, Set<String>>();
+                    while (iterator.hasNext()) {
+                        Node node = iterator.nextNode();
+                        entries.put(node.getPath(), getTags(node));
+                    }
+                    tagIndex.rebuild(entries, generation);
+                } catch (RepositoryException ex) {
+                    tagIndex.clear();
+                    throw ex;
+                }
+                session.refresh(false);
+            }
+            for (String path : tagIndex.drainStaleTrees()) {
+                tagIndex.removeTree(path);
+                if (session.nodeExists(path)) {
+                    indexTags(session.getNode(path), true);
+                }
+            }
+            for (String path : tagIndex.drainStalePaths()) {
+                if (session.nodeExists(path)) {
+                    indexTags(session.getNode(path), false);
+                } else {
+                    tagIndex.remove(path);
+                }
+            }
+            return tagIndex;
+        }
+    }
+
+    private void indexTags(Node node, boolean descendants) throws RepositoryException {
+        if (node.getPath().startsWith("/" + INTERNAL_TRASH_NODE_NAME)) {
+            return;
+        }
+        if (node.hasProperty(INTERNAL_TAGS_PROPERTY)) {
+            tagIndex.index(node.getPath(), getTags(node));
+        } else {
+            tagIndex.remove(node.getPath());
+        }
+        if (descendants) {
+            NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                Node child = children.nextNode();
+                if (!child.getName().contains(":")) {
+                    indexTags(child, true);
+                }
+            }
+        }
+    }
+
+    @Override
+    public ChangeFeed getChanges(long after, int limit) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            return changeLog.read(session, after, limit <= 0 || limit > maxChangeFeedSize ? maxChangeFeedSize : limit);
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    @Override
+    public ChangeFeed getChangesSince(Date since, int limit) throws RepositoryException {
+        return getChanges(ChangeLog.toSequence(since), limit);
+    }
+
+    @Override
+    public List<Version> getVersionHistory(String path) throws RepositoryException {
+        return getVersionHistory(path, 0, 0);
+    }
+
+    @Override
+    public List<Version> getVersionHistory(String path, int offset, int limit) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            VersionHistory versionHistory = session.getWorkspace().getVersionManager().getVersionHistory(getAbsolutePath(path));
+            if (limit <= 0 || limit > maxVersionHistorySize) {
+                limit = maxVersionHistorySize;
+            }
+            // Versions are stored oldest first, so the newest first window is taken from the end
+            long total = countVersions(versionHistory);
+            long end = total - Math.max(offset, 0);
+            long start = Math.max(end - limit, 0);
+            LinkedList<Version> versions = new LinkedList<Version>();
+            if (end <= 0) {
+                return versions;
+            }
             VersionIterator iterator = versionHistory.getAllVersions();
-            while (iterator.hasNext()) {
+            iterator.skip(start);
+            for (long i = start; i < end && iterator.hasNext(); i++) {
                 javax.jcr.version.Version jcrVersion = iterator.nextVersion();
-                Node node = jcrVersion.getFrozenNode();
+                // The frozen node is never loaded, only the version's own metadata
                 Version version = new Version();
-                version.setName(node.getName());
-                version.setPath(node.getPath());
+                version.setName(jcrVersion.getName());
+                version.setPath(jcrVersion.getPath() + "/" + JCR_FROZEN_NODE_NAME);
                 version.setCreationTime(jcrVersion.getCreated().getTime());
-                versions.add(version);
+                versions.addFirst(version);
             }
             return versions;
         } finally {
-            session.logout();
+            releaseReadSession(session);
         }
     }
 
+    @Override
+    public long getVersionCount(String path) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            return countVersions(session.getWorkspace().getVersionManager().getVersionHistory(getAbsolutePath(path)));
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    @Override
+    public ContentNode getVersion(String path, String versionName) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            String absolutePath = getAbsolutePath(path);
+            Node frozenNode = session.getWorkspace().getVersionManager().getVersionHistory(absolutePath).getVersion(versionName).getFrozenNode();
+            ContentNode contentNode = createContentNodeWrapper(frozenNode, false, 0, 0, Projection.parse(null, false));
+            // Report the node where it lives rather than where its frozen copy is stored
+            contentNode.setPath(absolutePath);
+            contentNode.setName(absolutePath.substring(absolutePath.lastIndexOf('/') + 1));
+            contentNode.setParent(absolutePath.lastIndexOf('/') > 0 ? absolutePath.substring(0, absolutePath.lastIndexOf('/')) : "/");
+            return contentNode;
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    @Override
+    public List<PropertyChange> diffVersions(String path, String fromVersionName, String toVersionName) throws RepositoryException {
+        Session session = getReadSession();
+        try {
+            VersionHistory versionHistory = session.getWorkspace().getVersionManager().getVersionHistory(getAbsolutePath(path));
+            Map<String, String> from = getVersionedProperties(versionHistory.getVersion(fromVersionName).getFrozenNode());
+            Map<String, String> to = getVersionedProperties(versionHistory.getVersion(toVersionName).getFrozenNode());
+            List<PropertyChange> changes = new LinkedList<PropertyChange>();
+            for (Entry<String, String> property : from.entrySet()) {
+                String toValue = to.get(property.getKey());
+                if (toValue == null) {
+                    changes.add(new PropertyChange(property.getKey(), PropertyChange.Type.removed, property.getValue(), null));
+                } else if (!toValue.equals(property.getValue())) {
+                    changes.add(new PropertyChange(property.getKey(), PropertyChange.Type.changed, property.getValue(), toValue));
+                }
+            }
+            for (Entry<String, String> property : to.entrySet()) {
+                if (!from.containsKey(property.getKey())) {
+                    changes.add(new PropertyChange(property.getKey(), PropertyChange.Type.added, null, property.getValue()));
+                }
+            }
+            return changes;
+        } finally {
+            releaseReadSession(session);
+        }
+    }
+
+    private Map<String, String> getVersionedProperties(Node frozenNode) throws RepositoryException {
+        Map<String, String> properties = new TreeMap<String, String>();
+        PropertyIterator iterator = frozenNode.getProperties();
+        while (iterator.hasNext()) {
+            Property property = iterator.nextProperty();
+            if (property.getName().startsWith(JCR_PROPERTY_PREFIX)) {
+                continue;
+            }
+            if (property.isMultiple()) {
+                StringBuilder value = new StringBuilder();
+                for (Value item : property.getValues()) {
+                    if (value.length() > 0) {
+                        value.append(", ");
+                    }
+                    value.append(item.getString());
+                }
+                properties.put(property.getName(), value.toString());
+            } else {
+                properties.put(property.getName(), property.getString());
+            }
+        }
+        return properties;
+    }
+
+    private long countVersions(VersionHistory versionHistory) throws RepositoryException {
+        VersionIterator iterator = versionHistory.getAllVersions();
+        long size = iterator.getSize();
+        if (size >= 0) {
+            return size;
+        }
+        size = 0;
+        while (iterator.hasNext()) {
+            iterator.nextVersion();
+            size++;
+        }
+        return size;
+    }
+
     @Override
     public BinaryNode saveBinary(String path, String tags, Binary binary) throws RepositoryException {
-        Session session = getSession();
+        // A spooled upload is read off the network before a write session is taken, so slow clients do not hold one
+        File spooled = spool(binary.getContent());
+        try {
+            return saveBinary(path, tags, binary, spooled);
+        } finally {
+            if (spooled != null) {
+                spooled.delete();
+            }
+        }
+    }
+
+    private BinaryNode saveBinary(String path, String tags, Binary binary, File spooled) throws RepositoryException {
+        Session session = getWriteSession();
         try {
             Node root = session.getRootNode();
             VersionManager versionManager = session.getWorkspace().getVersionManager();
             Node parentNode;
-            if (path == null || path.isEmpty()) {
-                parentNode = root;
-            } else {
-                parentNode = root.getNode(path);
-            }
-            if (parentNode.isNodeType("mix:versionable")) {
-                versionManager.checkout(parentNode.getPath());
-            }
+            parentNode = getNode(session, path);
+            versioner.checkout(versionManager, parentNode);
             Node node;
             Node contentNode;
             if (parentNode.hasNode(binary.getName())) {
@@ -278,141 +1158,430 @@ public class ContentRepositoryServiceImpl implements ContentRepositoryService {
                 }
                 updateNode(node, Status.published, tags);
                 contentNode = node.getNode(INTERNAL_BINARY_FILE_NODE_NAME).getNode("jcr:content");
+                changeLog.record(session, Change.Type.updated, node.getPath());
             } else {
-                node = createNode(parentNode, binary.getName(), Status.published, tags);
+                node = createNode(parentNode, binary.getName(), Status.published, tags, INTERNAL_BINARY_CONTENT_TYPE);
                 node.setProperty(INTERNAL_CONTENT_TYPE_PROPERTY, INTERNAL_BINARY_CONTENT_TYPE);
                 contentNode = node.addNode(INTERNAL_BINARY_FILE_NODE_NAME, NodeType.NT_FILE).addNode("jcr:content", NodeType.NT_RESOURCE);
+                changeLog.record(session, Change.Type.created, node.getPath());
             }
-            contentNode.setProperty("jcr:data", session.getValueFactory().createBinary(binary.getContent()));
+            contentNode.setProperty("jcr:data", createBinary(session, binary.getContent(), spooled));
             contentNode.setProperty("jcr:mimeType", binary.getMimeType());
             session.save();
-            if (parentNode.isNodeType("mix:versionable")) {
-                versionManager.checkin(parentNode.getPath());
-            }
+            nodeCacheInvalidator.invalidateNode(node.getPath());
+            versioner.checkin(versionManager, parentNode, getContentType(parentNode), true);
             return createBinaryNodeWrapper(node);
         } finally {
-            session.logout();
+            releaseWriteSession(session);
+        }
+    }
+
+    @Override
+    public Upload initiateUpload(String path, String name, String mimeType, String tags) throws RepositoryException {
+        try {
+            return uploadManager.initiate(path, name, mimeType, tags);
+        } catch (IOException ex) {
+            throw new RepositoryException("Unable to initiate upload of " + name, ex);
+        }
+    }
+
+    @Override
+    public Upload uploadChunk(String id, int number, InputStream content) throws RepositoryException {
+        try {
+            return uploadManager.writeChunk(id, number, content);
+        } catch (IOException ex) {
+            throw new RepositoryException("Unable to stage chunk " + number + " of upload " + id, ex);
+        }
+    }
+
+    @Override
+    public Upload getUpload(String id) {
+        return uploadManager.getUpload(id);
+    }
+
+    @Override
+    public BinaryNode commitUpload(String id) throws RepositoryException {
+        Upload upload = uploadManager.beginCommit(id);
+        if (upload == null) {
+            return null;
+        }
+        boolean committed = false;
+        try {
+            InputStream content = uploadManager.openChunks(id);
+            try {
+                Binary binary = new Binary();
+                binary.setName(upload.getName());
+                binary.setMimeType(upload.getMimeType());
+                binary.setContent(content);
+                BinaryNode binaryNode = saveBinary(upload.getPath(), upload.getTags(), binary, null);
+                committed = true;
+                return binaryNode;
+            } finally {
+                content.close();
+            }
+        } catch (IOException ex) {
+            throw new RepositoryException("Unable to read upload " + id, ex);
+        } finally {
+            // A failed commit leaves the chunks in place so that it can be retried
+            uploadManager.endCommit(id, committed);
+        }
+    }
+
+    @Override
+    public Upload abortUpload(String id) {
+        return uploadManager.abort(id);
+    }
+
+    private File spool(InputStream content) throws RepositoryException {
+        if (uploadSpool == null) {
+            return null;
+        }
+        try {
+            return uploadSpool.spool(content);
+        } catch (IOException ex) {
+            throw new RepositoryException("Unable to spool upload", ex);
+        }
+    }
+
+    // The value factory copies the stream into the binary store as it reads, so memory use does not grow with the upload
+    private javax.jcr.Binary createBinary(Session session, InputStream content, File spooled) throws RepositoryException {
+        if (spooled == null) {
+            return session.getValueFactory().createBinary(content);
+        }
+        try {
+            InputStream input = new FileInputStream(spooled);
+            try {
+                return session.getValueFactory().createBinary(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ex) {
+            throw new RepositoryException("Unable to read spooled upload", ex);
         }
     }
 
     @Override
     public Binary getBinary(String path) throws RepositoryException {
-        Session session = getSession();
+        BinaryContent content = openBinary(path);
         try {
-            Node root = session.getRootNode();
-            Node node = root.getNode(path);
-            Node contentNode = node.getNode(INTERNAL_BINARY_FILE_NODE_NAME).getNode("jcr:content");
             Binary binary = new Binary();
-            binary.setName(node.getName());
-            binary.setMimeType(contentNode.getProperty("jcr:mimeType").getString());
-            binary.setContent(contentNode.getProperty("jcr:data").getBinary().getStream());
+            binary.setName(content.getName());
+            binary.setMimeType(content.getMimeType());
+            binary.setContent(content.getStream());
+            content.markStarted();
             return binary;
-        } finally {
-            session.logout();
+        } catch (RepositoryException ex) {
+            content.close();
+            throw ex;
         }
     }
 
-    private Session getSession() throws RepositoryException {
+    @Override
+    public BinaryContent openBinary(String path) throws RepositoryException {
+        // The session stays open until the content is closed, so it is not taken from the read pool where slow downloads could starve it
+        downloadSessions.acquire();
         Session session;
         try {
-            session = JCRFactory.getRepository().login(workspace);
-        } catch (NoSuchWorkspaceException ex) {
-            session = JCRFactory.getRepository().login();
-            session.getWorkspace().createWorkspace(workspace);
-            session = JCRFactory.getRepository().login(workspace);
+            session = login();
+        } catch (RepositoryException ex) {
+            downloadSessions.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            downloadSessions.release();
+            throw ex;
+        }
+        try {
+            Node node = getNode(session, path);
+            Node contentNode = node.getNode(INTERNAL_BINARY_FILE_NODE_NAME).getNode("jcr:content");
+            Date lastModified = node.hasProperty(INTERNAL_MODIFIED_PROPERTY) ? node.getProperty(INTERNAL_MODIFIED_PROPERTY).getDate().getTime() : null;
+            BinaryContent content = new BinaryContent(node.getName(), contentNode.getProperty("jcr:mimeType").getString(), lastModified, contentNode.getProperty("jcr:data").getBinary(), session, binaryStore, downloadSessions);
+            downloadSessions.opened(content);
+            return content;
+        } catch (RepositoryException ex) {
+            session.logout();
+            downloadSessions.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            session.logout();
+            downloadSessions.release();
+            throw ex;
+        }
+    }
+
+    private Session getReadSession() throws RepositoryException {
+        return readSessionPool.borrowSession();
+    }
+
+    private void releaseReadSession(Session session) {
+        readSessionPool.returnSession(session);
+    }
+
+    private Session getWriteSession() throws RepositoryException {
+        return writeSessionPool.borrowSession();
+    }
+
+    private void releaseWriteSession(Session session) {
+        versioner.release(session);
+        changeLog.release(session);
+        writeSessionPool.returnSession(session);
+    }
+
+    private boolean startObservation() {
+        if (observationSession != null) {
+            return true;
         }
-        return session;
+        synchronized (this) {
+            if (observationSession == null) {
+                try {
+                    Session session = login();
+                    session.getWorkspace().getObservationManager().addEventListener(nodeCacheInvalidator, NodeCacheInvalidator.EVENT_TYPES, "/", true, null, null, false);
+                    observationSession = session;
+                } catch (RepositoryException ex) {
+                    LOGGER.warn("Unable to observe workspace " + workspace + ", node cache disabled", ex);
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (observationSession != null) {
+                try {
+                    observationSession.getWorkspace().getObservationManager().removeEventListener(nodeCacheInvalidator);
+                } catch (RepositoryException ex) {
+                    LOGGER.warn("Unable to remove node cache listener", ex);
+                }
+                observationSession.logout();
+                observationSession = null;
+            }
+        }
+        nodeCache.clear();
+        preparedQueryCache.clear();
+        tagIndex.clear();
+        backgroundDeleter.shutdown();
+        changeLog.shutdown();
+        versioner.shutdown();
+        uploadManager.shutdown();
+        downloadSessions.shutdown();
+        versionPruner.shutdown();
+        readSessionPool.close();
+        writeSessionPool.close();
+    }
+
+    public SessionPool getReadSessionPool() {
+        return readSessionPool;
+    }
+
+    public SessionPool getWriteSessionPool() {
+        return writeSessionPool;
+    }
+
+    public NodeCache getNodeCache() {
+        return nodeCache;
+    }
+
+    public Versioner getVersioner() {
+        return versioner;
+    }
+
+    public BackgroundDeleter getBackgroundDeleter() {
+        return backgroundDeleter;
+    }
+
+    public VersionPruner getVersionPruner() {
+        return versionPruner;
+    }
+
+    public PreparedQueryCache getPreparedQueryCache() {
+        return preparedQueryCache;
+    }
+
+    private String getAbsolutePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    private Node getNode(Session session, String path) throws RepositoryException {
+        Node root = session.getRootNode();
+        if (path == null || path.isEmpty()) {
+            return root;
+        }
+        checkContentPath(path);
+        return root.getNode(path);
+    }
+
+    // The trash, the change log and the nodes backing binaries are internal, so callers can never address them directly
+    private void checkContentPath(String path) throws PathNotFoundException {
+        if (path == null) {
+            return;
+        }
+        for (String segment : path.split("/")) {
+            if (segment.equals("..") || segment.startsWith(INTERNAL_PROPERTY_PREFIX) || segment.startsWith(JCR_PROPERTY_PREFIX)) {
+                throw new PathNotFoundException(path);
+            }
+        }
+    }
+
+    private Session login() throws RepositoryException {
+        return JCRFactory.getWorkspaceRegistry().login(workspace);
     }
 
     private AbstractNode createNodeWrapper(Node node, boolean published) throws RepositoryException {
+        return createNodeWrapper(node, published, 0, 0, Projection.ALL);
+    }
+
+    private AbstractNode createNodeWrapper(Node node, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException {
         if (!node.hasProperty(INTERNAL_CONTENT_TYPE_PROPERTY)) {
-            return createContainerNodeWrapper(node, published);
+            return createContainerNodeWrapper(node, published, childOffset, childLimit, projection);
         } else {
             String contentType = node.getProperty(INTERNAL_CONTENT_TYPE_PROPERTY).getString();
             if (contentType.equals(INTERNAL_BINARY_CONTENT_TYPE)) {
-                return createBinaryNodeWrapper(node);
+                return createBinaryNodeWrapper(node, projection);
             } else {
-                return createContentNodeWrapper(node, published);
+                return createContentNodeWrapper(node, published, childOffset, childLimit, projection);
             }
         }
     }
 
-    private ContentNode createContentNodeWrapper(Node node, boolean published) throws RepositoryException {
+    private ContentNode createContentNodeWrapper(Node node, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException {
         ContentNode contentNode = new ContentNode();
-        updateContentNodeWrapper(contentNode, node, published);
+        updateContentNodeWrapper(contentNode, node, published, childOffset, childLimit, projection);
         return contentNode;
     }
 
-    private ContainerNode createContainerNodeWrapper(Node node, boolean published) throws RepositoryException {
+    private ContainerNode createContainerNodeWrapper(Node node, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException {
         ContainerNode containerNode = new ContainerNode();
-        updateContainerNodeWrapper(containerNode, node, published);
+        updateContainerNodeWrapper(containerNode, node, published, childOffset, childLimit, projection);
         return containerNode;
     }
 
     private BinaryNode createBinaryNodeWrapper(Node node) throws RepositoryException {
+        return createBinaryNodeWrapper(node, Projection.ALL);
+    }
+
+    private BinaryNode createBinaryNodeWrapper(Node node, Projection projection) throws RepositoryException {
         BinaryNode binaryNode = new BinaryNode();
-        updateBinaryNodeWrapper(binaryNode, node);
+        updateBinaryNodeWrapper(binaryNode, node, projection);
         return binaryNode;
     }
 
-    private void updateContainerNodeWrapper(ContainerNode containerNode, Node node, boolean published) throws RepositoryException {
-        updateAbstractNodeWrapper(containerNode, node);
+    private void updateContainerNodeWrapper(ContainerNode containerNode, Node node, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException {
+        updateAbstractNodeWrapper(containerNode, node, projection);
+        if (!projection.includesChildren()) {
+            containerNode.setChildren(null);
+            return;
+        }
         NodeIterator iterator = node.getNodes();
+        long size = iterator.getSize();
+        long windowEnd = childLimit > 0 ? (long) childOffset + childLimit : Long.MAX_VALUE;
+        // Only the root has jcr: and rcr: children, so elsewhere an unfiltered listing can jump straight to the window
+        boolean positional = !published && node.getDepth() > 0 && size >= 0;
+        long position = 0;
+        if (positional && childOffset > 0) {
+            position = Math.min(childOffset, size);
+            iterator.skip(position);
+        }
         while (iterator.hasNext()) {
+            if (positional && position >= windowEnd) {
+                position = size;
+                break;
+            }
             Node child = iterator.nextNode();
-            if (!child.getName().startsWith(JCR_PROPERTY_PREFIX) && (!published || child.getProperty(INTERNAL_STATUS_PROPERTY).getString().equals(Status.published.name()))) {
-                ChildNode childNode = new ChildNode();
-                childNode.setName(child.getName());
-                childNode.setPath(child.getPath());
-                if(child.hasProperty(INTERNAL_STATUS_PROPERTY)){
-                    childNode.setStatus(Status.valueOf(child.getProperty(INTERNAL_STATUS_PROPERTY).getString()));
+            if (isListedChild(child, published)) {
+                if (position >= childOffset && position < windowEnd) {
+                    containerNode.getChildren().add(createChildNode(child));
                 }
-                if (child.hasProperty(INTERNAL_CONTENT_TYPE_PROPERTY)) {
-                    childNode.setContentType(child.getProperty(INTERNAL_CONTENT_TYPE_PROPERTY).getString());
-                } else {
-                    childNode.setContentType(INTERNAL_CONTAINER_CONTENT_TYPE);
-                }
-                containerNode.getChildren().add(childNode);
+                position++;
             }
         }
+        containerNode.setChildCount(position);
     }
 
-    private void updateContentNodeWrapper(ContentNode contentNode, Node node, boolean published) throws RepositoryException {
-        updateContainerNodeWrapper(contentNode, node, published);
-        PropertyIterator iterator = node.getProperties();
-        while (iterator.hasNext()) {
-            Property property = iterator.nextProperty();
-            if (!property.getName().startsWith(JCR_PROPERTY_PREFIX) && !property.getName().startsWith(INTERNAL_PROPERTY_PREFIX)) {
-                contentNode.getProperties().put(property.getName(), property.getString());
+    private boolean isListedChild(Node child, boolean published) throws RepositoryException {
+        if (child.getName().startsWith(JCR_PROPERTY_PREFIX) || child.getName().startsWith(INTERNAL_PROPERTY_PREFIX)) {
+            return false;
+        }
+        return !published || !child.hasProperty(INTERNAL_STATUS_PROPERTY) || child.getProperty(INTERNAL_STATUS_PROPERTY).getString().equals(Status.published.name());
+    }
+
+    private ChildNode createChildNode(Node child) throws RepositoryException {
+        ChildNode childNode = new ChildNode();
+        childNode.setName(child.getName());
+        childNode.setPath(child.getPath());
+        if (child.hasProperty(INTERNAL_STATUS_PROPERTY)) {
+            childNode.setStatus(Status.valueOf(child.getProperty(INTERNAL_STATUS_PROPERTY).getString()));
+        }
+        if (child.hasProperty(INTERNAL_CONTENT_TYPE_PROPERTY)) {
+            childNode.setContentType(child.getProperty(INTERNAL_CONTENT_TYPE_PROPERTY).getString());
+        } else {
+            childNode.setContentType(INTERNAL_CONTAINER_CONTENT_TYPE);
+        }
+        return childNode;
+    }
+
+    private void updateContentNodeWrapper(ContentNode contentNode, Node node, boolean published, int childOffset, int childLimit, Projection projection) throws RepositoryException {
+        updateContainerNodeWrapper(contentNode, node, published, childOffset, childLimit, projection);
+        if (!projection.includes(Projection.PROPERTIES)) {
+            contentNode.setProperties(null);
+        } else if (projection.includesAllProperties()) {
+            PropertyIterator iterator = node.getProperties();
+            while (iterator.hasNext()) {
+                Property property = iterator.nextProperty();
+                if (!property.getName().startsWith(JCR_PROPERTY_PREFIX) && !property.getName().startsWith(INTERNAL_PROPERTY_PREFIX)) {
+                    contentNode.getProperties().put(property.getName(), property.getString());
+                }
+            }
+        } else {
+            for (String propertyName : projection.getPropertyNames()) {
+                if (!propertyName.startsWith(JCR_PROPERTY_PREFIX) && !propertyName.startsWith(INTERNAL_PROPERTY_PREFIX) && node.hasProperty(propertyName)) {
+                    contentNode.getProperties().put(propertyName, node.getProperty(propertyName).getString());
+                }
             }
         }
     }
 
-    private void updateBinaryNodeWrapper(BinaryNode binaryNode, Node node) throws RepositoryException {
-        updateAbstractNodeWrapper(binaryNode, node);
-        binaryNode.setMimeType(node.getNode(INTERNAL_BINARY_FILE_NODE_NAME).getNode("jcr:content").getProperty("jcr:mimeType").getString());
+    private void updateBinaryNodeWrapper(BinaryNode binaryNode, Node node, Projection projection) throws RepositoryException {
+        updateAbstractNodeWrapper(binaryNode, node, projection);
+        if (projection.includes(Projection.MIME_TYPE)) {
+            binaryNode.setMimeType(node.getNode(INTERNAL_BINARY_FILE_NODE_NAME).getNode("jcr:content").getProperty("jcr:mimeType").getString());
+        }
     }
 
-    private void updateAbstractNodeWrapper(AbstractNode abstractNode, Node node) throws RepositoryException {
+    private void updateAbstractNodeWrapper(AbstractNode abstractNode, Node node, Projection projection) throws RepositoryException {
         abstractNode.setPath(node.getPath());
         abstractNode.setName(node.getName());
-        try {
-            abstractNode.setParent(node.getParent().getPath());
-        } catch (ItemNotFoundException ex) {
-            // Ignore
+        if (projection.includes(Projection.PARENT)) {
+            try {
+                abstractNode.setParent(node.getParent().getPath());
+            } catch (ItemNotFoundException ex) {
+                // Ignore
+            }
         }
         if(node.hasProperty(INTERNAL_STATUS_PROPERTY)){
             abstractNode.setStatus(Status.valueOf(node.getProperty(INTERNAL_STATUS_PROPERTY).getString()));
         }
-        if(node.hasProperty(INTERNAL_TAGS_PROPERTY)){
-            abstractNode.setTags(node.getProperty(INTERNAL_TAGS_PROPERTY).getString());
+        if(projection.includes(Projection.TAGS) && node.hasProperty(INTERNAL_TAGS_PROPERTY)){
+            abstractNode.setTags(formatTags(getTags(node)));
         }
         if (node.hasProperty(INTERNAL_CONTENT_TYPE_PROPERTY)) {
             abstractNode.setContentType(node.getProperty(INTERNAL_CONTENT_TYPE_PROPERTY).getString());
-            abstractNode.setCreated(node.getProperty(INTERNAL_CREATED_PROPERTY).getDate().getTime());
-            abstractNode.setModified(node.getProperty(INTERNAL_MODIFIED_PROPERTY).getDate().getTime());
-            abstractNode.setCreatedBy(new uk.co.revsys.content.repository.model.User(node.getProperty(INTERNAL_CREATED_BY_ID_PROPERTY).getString(), node.getProperty(INTERNAL_CREATED_BY_NAME_PROPERTY).getString()));
-            abstractNode.setModifiedBy(new uk.co.revsys.content.repository.model.User(node.getProperty(INTERNAL_MODIFIED_BY_ID_PROPERTY).getString(), node.getProperty(INTERNAL_MODIFIED_BY_NAME_PROPERTY).getString()));
+            if (projection.includes(Projection.CREATED)) {
+                abstractNode.setCreated(node.getProperty(INTERNAL_CREATED_PROPERTY).getDate().getTime());
+            }
+            if (projection.includes(Projection.MODIFIED)) {
+                abstractNode.setModified(node.getProperty(INTERNAL_MODIFIED_PROPERTY).getDate().getTime());
+            }
+            if (projection.includes(Projection.CREATED_BY)) {
+                abstractNode.setCreatedBy(new uk.co.revsys.content.repository.model.User(node.getProperty(INTERNAL_CREATED_BY_ID_PROPERTY).getString(), node.getProperty(INTERNAL_CREATED_BY_NAME_PROPERTY).getString()));
+            }
+            if (projection.includes(Projection.MODIFIED_BY)) {
+                abstractNode.setModifiedBy(new uk.co.revsys.content.repository.model.User(node.getProperty(INTERNAL_MODIFIED_BY_ID_PROPERTY).getString(), node.getProperty(INTERNAL_MODIFIED_BY_NAME_PROPERTY).getString()));
+            }
         } else {
             abstractNode.setContentType(INTERNAL_CONTAINER_CONTENT_TYPE);
         }
@@ -5,6 +5,7 @@ import javax.jcr.Repository;
 public class JCRFactory {
 
     private static Repository repository;
+    private static WorkspaceRegistry workspaceRegistry;
 
     public static Repository getRepository() {
         return repository;
@@ -12,6 +13,11 @@ public class JCRFactory {
 
     public static void setRepository(Repository repository) {
         JCRFactory.repository = repository;
+        JCRFactory.workspaceRegistry = new WorkspaceRegistry(repository);
+    }
+
+    public static WorkspaceRegistry getWorkspaceRegistry() {
+        return workspaceRegistry;
     }
     
     
@@ -0,0 +1,82 @@
+package uk.co.revsys.content.repository;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class Projection {
+
+    public static final String PARENT = "parent";
+    public static final String TAGS = "tags";
+    public static final String CREATED = "created";
+    public static final String CREATED_BY = "createdBy";
+    public static final String MODIFIED = "modified";
+    public static final String MODIFIED_BY = "modifiedBy";
+    public static final String MIME_TYPE = "mimeType";
+    public static final String PROPERTIES = "properties";
+    private static final String PROPERTY_PREFIX = PROPERTIES + ".";
+
+    public static final Projection ALL = new Projection(null, null, true);
+
+    // path, name, status and contentType are always returned, so they are not listed here
+    private final Set<String> fields;
+    private final Set<String> propertyNames;
+    private final boolean children;
+
+    private Projection(Set<String> fields, Set<String> propertyNames, boolean children) {
+        this.fields = fields;
+        this.propertyNames = propertyNames;
+        this.children = children;
+    }
+
+    public static Projection parse(String fields, boolean children) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return children ? ALL : new Projection(null, null, false);
+        }
+        Set<String> fieldSet = new TreeSet<String>();
+        Set<String> propertyNames = new LinkedHashSet<String>();
+        boolean allProperties = false;
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (field.startsWith(PROPERTY_PREFIX)) {
+                fieldSet.add(PROPERTIES);
+                propertyNames.add(field.substring(PROPERTY_PREFIX.length()));
+            } else if (!field.isEmpty()) {
+                if (field.equals(PROPERTIES)) {
+                    allProperties = true;
+                }
+                fieldSet.add(field);
+            }
+        }
+        return new Projection(fieldSet, allProperties ? null : propertyNames, children);
+    }
+
+    public boolean includes(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    public boolean includesChildren() {
+        return children;
+    }
+
+    public boolean includesAllProperties() {
+        return includes(PROPERTIES) && propertyNames == null;
+    }
+
+    public Set<String> getPropertyNames() {
+        if (propertyNames == null) {
+            return null;
+        }
+        return Collections.unmodifiableSet(propertyNames);
+    }
+
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(fields == null ? "*" : fields.toString());
+        key.append(propertyNames == null ? "*" : new TreeSet<String>(propertyNames).toString());
+        key.append(children);
+        return key.toString();
+    }
+
+}
@@ -14,6 +14,7 @@ import org.modeshape.jcr.ModeShapeEngine;
 import org.modeshape.jcr.RepositoryConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
 
 public class ServiceInitializer implements ServletContextListener {
 
@@ -42,6 +43,7 @@ public class ServiceInitializer implements ServletContextListener {
             JCRFactory.setRepository(repository);
             Session session = repository.login();
             session.getWorkspace().getNamespaceRegistry().registerNamespace("rcr", "http://www.revolutionarysystems.co.uk");
+            JCRFactory.getWorkspaceRegistry().warm(session);
             session.logout();
         } catch (RepositoryException ex) {
             ex.printStackTrace();
@@ -64,6 +66,8 @@ public class ServiceInitializer implements ServletContextListener {
     public void shutdown() {
         System.out.println("Shutting down ModeShape engine ...");
         LOGGER.info("Shutting down ModeShape engine ...");
+        CachingContentRepositoryServiceFactory.closeAll();
+        MaintenanceScheduler.shutdown();
         try {
             engine.shutdown().get();
             System.out.println("ModeShape engine shutdown successfully");
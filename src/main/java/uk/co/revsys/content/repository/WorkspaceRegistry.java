@@ -0,0 +1,82 @@
+package uk.co.revsys.content.repository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.jcr.NoSuchWorkspaceException;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class WorkspaceRegistry {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(WorkspaceRegistry.class);
+
+    private final Repository repository;
+    private final ConcurrentMap<String, Boolean> workspaces = new ConcurrentHashMap<String, Boolean>();
+    private final ConcurrentMap<String, Object> creationLocks = new ConcurrentHashMap<String, Object>();
+
+    public WorkspaceRegistry(Repository repository) {
+        this.repository = repository;
+    }
+
+    public void warm(Session session) throws RepositoryException {
+        for (String workspace : session.getWorkspace().getAccessibleWorkspaceNames()) {
+            workspaces.put(workspace, Boolean.TRUE);
+        }
+        LOGGER.info("Registered " + workspaces.size() + " existing workspaces");
+    }
+
+    public Session login(String workspace) throws RepositoryException {
+        ensureWorkspace(workspace);
+        try {
+            return repository.login(workspace);
+        } catch (NoSuchWorkspaceException ex) {
+            // Removed behind our back, so forget it and provision it again
+            workspaces.remove(workspace);
+            ensureWorkspace(workspace);
+            return repository.login(workspace);
+        }
+    }
+
+    public void ensureWorkspace(String workspace) throws RepositoryException {
+        if (workspaces.containsKey(workspace)) {
+            return;
+        }
+        Object lock = new Object();
+        Object existingLock = creationLocks.putIfAbsent(workspace, lock);
+        if (existingLock != null) {
+            lock = existingLock;
+        }
+        synchronized (lock) {
+            if (workspaces.containsKey(workspace)) {
+                return;
+            }
+            Session session = repository.login();
+            try {
+                String[] existingWorkspaces = session.getWorkspace().getAccessibleWorkspaceNames();
+                if (!Arrays.asList(existingWorkspaces).contains(workspace)) {
+                    LOGGER.info("Creating workspace " + workspace);
+                    session.getWorkspace().createWorkspace(workspace);
+                }
+                workspaces.put(workspace, Boolean.TRUE);
+            } finally {
+                session.logout();
+            }
+        }
+        creationLocks.remove(workspace, lock);
+    }
+
+    public boolean isKnown(String workspace) {
+        return workspaces.containsKey(workspace);
+    }
+
+    public Set<String> getWorkspaces() {
+        return Collections.unmodifiableSet(workspaces.keySet());
+    }
+
+}
@@ -0,0 +1,180 @@
+package uk.co.revsys.content.repository.binary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+// Keeps the session and binary open until the content has been streamed, so the stream never outlives its session
+public class BinaryContent implements Closeable {
+
+    public enum Transfer {
+        stream,
+        file;
+    }
+
+    private static final int RANGE_BUFFER_SIZE = 65536;
+
+    private final String name;
+    private final String mimeType;
+    private final long size;
+    private final String hash;
+    private final Date lastModified;
+    private final File file;
+    private final Transfer transfer;
+    private final Binary binary;
+    private final Session session;
+    private final DownloadSessions downloadSessions;
+    private final long opened = System.currentTimeMillis();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public BinaryContent(String name, String mimeType, Date lastModified, Binary binary, Session session, FileSystemBinaryStore store) throws RepositoryException {
+        this(name, mimeType, lastModified, binary, session, store, null);
+    }
+
+    public BinaryContent(String name, String mimeType, Date lastModified, Binary binary, Session session, FileSystemBinaryStore store, DownloadSessions downloadSessions) throws RepositoryException {
+        this.name = name;
+        this.downloadSessions = downloadSessions;
+        this.mimeType = mimeType;
+        this.binary = binary;
+        this.session = session;
+        this.size = binary.getSize();
+        // ModeShape keys its binary store by SHA-1, so the hash is known without reading the content
+        this.hash = binary instanceof org.modeshape.jcr.api.Binary ? ((org.modeshape.jcr.api.Binary) binary).getHexHash() : null;
+        // HTTP dates only carry whole seconds
+        this.lastModified = lastModified == null ? null : new Date(lastModified.getTime() / 1000 * 1000);
+        this.file = store == null ? null : store.getFile(hash, size);
+        this.transfer = file == null ? Transfer.stream : Transfer.file;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Transfer getTransfer() {
+        return transfer;
+    }
+
+    public long getOpened() {
+        return opened;
+    }
+
+    public boolean isStarted() {
+        return started.get();
+    }
+
+    // Once the content has been handed over for reading, whoever reads it is responsible for closing it
+    public void markStarted() {
+        started.set(true);
+    }
+
+    public InputStream getStream() throws RepositoryException {
+        return new FilterInputStream(binary.getStream()) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    BinaryContent.this.close();
+                }
+            }
+        };
+    }
+
+    public InputStream getStream(long offset, long length) {
+        return new RangeInputStream(offset, Math.min(length, size - offset));
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                binary.dispose();
+                session.logout();
+            } finally {
+                if (downloadSessions != null) {
+                    downloadSessions.closed(this);
+                }
+            }
+        }
+    }
+
+    private class RangeInputStream extends InputStream {
+
+        private final byte[] buffer;
+        private long position;
+        private long remaining;
+
+        public RangeInputStream(long offset, long length) {
+            this.position = offset;
+            this.remaining = Math.max(length, 0);
+            this.buffer = new byte[(int) Math.max(Math.min(remaining, RANGE_BUFFER_SIZE), 1)];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            int read;
+            try {
+                read = binary.read(buffer, position);
+            } catch (RepositoryException ex) {
+                throw new IOException("Unable to read binary " + name, ex);
+            }
+            if (read == -1) {
+                remaining = 0;
+                return -1;
+            }
+            int count = (int) Math.min(Math.min(read, length), remaining);
+            System.arraycopy(buffer, 0, bytes, offset, count);
+            position += count;
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            BinaryContent.this.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+package uk.co.revsys.content.repository.binary;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Date;
+import javax.jcr.RepositoryException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class BinaryOutput implements StreamingOutput {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final String TRANSFER_HEADER = "X-Binary-Transfer";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BinaryOutput.class);
+
+    private final BinaryContent content;
+    private final InputStream input;
+    private final long offset;
+    private final long length;
+
+    public BinaryOutput(BinaryContent content, InputStream input, long offset, long length) {
+        this.content = content;
+        this.input = input;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        content.markStarted();
+        try {
+            LOGGER.debug("Serving " + length + " bytes of " + content.getName() + " by " + content.getTransfer());
+            if (content.getTransfer() == BinaryContent.Transfer.stream) {
+                stream(output);
+            } else {
+                transfer(output);
+            }
+            output.flush();
+        } finally {
+            if (input != null) {
+                input.close();
+            }
+            content.close();
+        }
+    }
+
+    private void stream(OutputStream output) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    // Reads the store file directly instead of through ModeShape; the response stream is not a file channel, so this is still a buffered copy
+    // The target channel is not closed, as that would close the response stream
+    private void transfer(OutputStream output) throws IOException {
+        FileChannel channel = new FileInputStream(content.getFile()).getChannel();
+        try {
+            WritableByteChannel target = Channels.newChannel(output);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + content.getFile() + " at " + position);
+                }
+                position += transferred;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static BinaryOutput createOutput(BinaryContent content, ByteRange byteRange) throws RepositoryException {
+        long offset = byteRange == null ? 0 : byteRange.getOffset();
+        long length = byteRange == null ? content.getSize() : byteRange.getLength();
+        if (content.getTransfer() != BinaryContent.Transfer.stream) {
+            return new BinaryOutput(content, null, offset, length);
+        }
+        InputStream input = byteRange == null ? content.getStream() : content.getStream(offset, length);
+        return new BinaryOutput(content, input, offset, length);
+    }
+
+    public static Response createResponse(BinaryContent content, Request request, String range, String ifRange) throws RepositoryException {
+        return createResponse(content, request, range, ifRange, false);
+    }
+
+    // A HEAD response never writes its entity, so its content is closed here rather than after streaming
+    public static Response createResponse(BinaryContent content, Request request, String range, String ifRange, boolean head) throws RepositoryException {
+        try {
+            EntityTag tag = content.getHash() == null ? null : new EntityTag(content.getHash());
+            // Revalidations are answered from the hash and modification date alone, without opening the content stream
+            ResponseBuilder notModified = evaluatePreconditions(request, tag, content.getLastModified());
+            if (notModified != null) {
+                content.close();
+                return setValidators(notModified, tag, content.getLastModified()).build();
+            }
+            // A range only applies to the representation the client already holds part of
+            if (ifRange != null && (tag == null || !ifRange.equals("\"" + tag.getValue() + "\""))) {
+                range = null;
+            }
+            ByteRange byteRange = ByteRange.parse(range, content.getSize());
+            if (byteRange == null) {
+                return setValidators(head ? Response.ok() : Response.ok(createOutput(content, null)), tag, content.getLastModified())
+                        .type(content.getMimeType())
+                        .header("Accept-Ranges", "bytes")
+                        .header(TRANSFER_HEADER, content.getTransfer().name())
+                        .header("Content-Length", content.getSize())
+                        .build();
+            }
+            if (!byteRange.isSatisfiable()) {
+                content.close();
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + content.getSize())
+                        .build();
+            }
+            return setValidators(Response.status(Response.Status.PARTIAL_CONTENT), tag, content.getLastModified())
+                    .entity(head ? null : createOutput(content, byteRange))
+                    .type(content.getMimeType())
+                    .header("Accept-Ranges", "bytes")
+                    .header(TRANSFER_HEADER, content.getTransfer().name())
+                    .header("Content-Range", "bytes " + byteRange.getOffset() + "-" + byteRange.getLast() + "/" + content.getSize())
+                    .header("Content-Length", byteRange.getLength())
+                    .build();
+        } catch (RepositoryException ex) {
+            content.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            content.close();
+            throw ex;
+        } finally {
+            if (head) {
+                content.close();
+            }
+        }
+    }
+
+    private static ResponseBuilder evaluatePreconditions(Request request, EntityTag tag, Date lastModified) {
+        if (tag != null && lastModified != null) {
+            return request.evaluatePreconditions(lastModified, tag);
+        } else if (tag != null) {
+            return request.evaluatePreconditions(tag);
+        } else if (lastModified != null) {
+            return request.evaluatePreconditions(lastModified);
+        }
+        return null;
+    }
+
+    private static ResponseBuilder setValidators(ResponseBuilder builder, EntityTag tag, Date lastModified) {
+        if (tag != null) {
+            builder.tag(tag);
+        }
+        if (lastModified != null) {
+            builder.lastModified(lastModified);
+        }
+        return builder;
+    }
+
+}
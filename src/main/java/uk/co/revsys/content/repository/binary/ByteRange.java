@@ -0,0 +1,65 @@
+package uk.co.revsys.content.repository.binary;
+
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long offset;
+    private final long length;
+
+    public ByteRange(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLast() {
+        return offset + length - 1;
+    }
+
+    public boolean isSatisfiable() {
+        return length > 0;
+    }
+
+    // Returns null when the whole entity should be sent, which is also the answer to multiple or malformed ranges
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') != -1) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        int separator = spec.indexOf('-');
+        if (separator == -1) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, separator).trim();
+            String last = spec.substring(separator + 1).trim();
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Math.min(Long.parseLong(last), size);
+                return new ByteRange(size - suffix, suffix);
+            }
+            long offset = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (end < offset) {
+                return null;
+            }
+            if (offset >= size) {
+                return new ByteRange(offset, 0);
+            }
+            return new ByteRange(offset, Math.min(end, size - 1) - offset + 1);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,360 @@
+package uk.co.revsys.content.repository.binary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+import uk.co.revsys.content.repository.model.Upload;
+
+// Chunks are staged on local disk and only written to the repository once, when the upload is committed
+public class ChunkedUploadManager {
+
+    private static final String CHUNK_SUFFIX = ".chunk";
+    private static final int BUFFER_SIZE = 65536;
+    private static final long MIN_CLEANUP_INTERVAL = 60000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ChunkedUploadManager.class);
+
+    private static final Pattern UNSAFE_CHARACTERS = Pattern.compile("[^A-Za-z0-9_-]");
+    private static final Pattern UPLOAD_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private final File directory;
+    private final long expiry;
+    private final int maxChunks;
+    private final long maxSize;
+    private final ConcurrentMap<String, StagedUpload> uploads = new ConcurrentHashMap<String, StagedUpload>();
+    private ScheduledFuture<?> cleanupTask;
+    private boolean shutdown = false;
+
+    public ChunkedUploadManager(File root, String workspace, long expiry, int maxChunks, long maxSize) {
+        this.directory = new File(root, getDirectoryName(workspace));
+        this.expiry = expiry;
+        this.maxChunks = maxChunks;
+        this.maxSize = maxSize;
+        // Nothing is created until the first upload, but anything left by an earlier process still needs clearing up
+        if (directory.isDirectory()) {
+            startCleanup();
+        }
+    }
+
+    // Workspace names come from the request path, so they are never used as a directory name as they are
+    static String getDirectoryName(String workspace) {
+        return UNSAFE_CHARACTERS.matcher(workspace).replaceAll("_") + "-" + Integer.toHexString(workspace.hashCode());
+    }
+
+    public Upload initiate(String path, String name, String mimeType, String tags) throws IOException {
+        startCleanup();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create staging directory " + directory);
+        }
+        String id = UUID.randomUUID().toString();
+        File uploadDirectory = new File(directory, id);
+        if (!uploadDirectory.mkdirs()) {
+            throw new IOException("Unable to create staging directory " + uploadDirectory);
+        }
+        Upload upload = new Upload();
+        upload.setId(id);
+        upload.setPath(path);
+        upload.setName(name);
+        upload.setMimeType(mimeType);
+        upload.setTags(tags);
+        upload.setStarted(new Date());
+        upload.setUpdated(upload.getStarted());
+        StagedUpload stagedUpload = new StagedUpload(upload, uploadDirectory);
+        uploads.put(id, stagedUpload);
+        return stagedUpload.snapshot();
+    }
+
+    public Upload getUpload(String id) {
+        StagedUpload stagedUpload = uploads.get(id);
+        return stagedUpload == null ? null : stagedUpload.snapshot();
+    }
+
+    // Chunks may arrive in any order and in parallel; a resent chunk replaces the earlier copy
+    public Upload writeChunk(String id, int number, InputStream content) throws IOException {
+        if (number < 0) {
+            throw new IllegalArgumentException("Invalid chunk number " + number);
+        }
+        if (maxChunks > 0 && number >= maxChunks) {
+            throw new IllegalArgumentException("Uploads are limited to " + maxChunks + " chunks");
+        }
+        StagedUpload stagedUpload = uploads.get(id);
+        if (stagedUpload == null) {
+            return null;
+        }
+        long remaining;
+        synchronized (stagedUpload) {
+            stagedUpload.checkOpen();
+            remaining = getRemaining(stagedUpload, number);
+        }
+        File target = new File(stagedUpload.directory, number + CHUNK_SUFFIX);
+        File staging = new File(stagedUpload.directory, number + "." + UUID.randomUUID() + ".tmp");
+        long size = 0;
+        try {
+            OutputStream output = new FileOutputStream(staging);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    size += read;
+                    if (size > remaining) {
+                        throw new IllegalArgumentException("Uploads are limited to " + maxSize + " bytes");
+                    }
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+            synchronized (stagedUpload) {
+                stagedUpload.checkOpen();
+                // Chunks written in parallel are only checked against each other once they land
+                if (size > getRemaining(stagedUpload, number)) {
+                    throw new IllegalArgumentException("Uploads are limited to " + maxSize + " bytes");
+                }
+                Files.move(staging.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                stagedUpload.chunks.put(number, size);
+                stagedUpload.upload.setUpdated(new Date());
+            }
+        } finally {
+            staging.delete();
+        }
+        return stagedUpload.snapshot();
+    }
+
+    public Upload beginCommit(String id) {
+        StagedUpload stagedUpload = uploads.get(id);
+        if (stagedUpload == null) {
+            return null;
+        }
+        synchronized (stagedUpload) {
+            stagedUpload.checkOpen();
+            int expected = 0;
+            for (Integer number : stagedUpload.chunks.keySet()) {
+                if (number != expected) {
+                    throw new IllegalArgumentException("Upload " + id + " is missing chunk " + expected);
+                }
+                expected++;
+            }
+            if (expected == 0) {
+                throw new IllegalArgumentException("Upload " + id + " has no chunks");
+            }
+            stagedUpload.committing = true;
+        }
+        return stagedUpload.snapshot();
+    }
+
+    public InputStream openChunks(String id) {
+        StagedUpload stagedUpload = uploads.get(id);
+        List<File> files = new ArrayList<File>();
+        synchronized (stagedUpload) {
+            for (Integer number : stagedUpload.chunks.keySet()) {
+                files.add(new File(stagedUpload.directory, number + CHUNK_SUFFIX));
+            }
+        }
+        return new ChunkInputStream(files);
+    }
+
+    public void endCommit(String id, boolean committed) {
+        if (committed) {
+            remove(id);
+        } else {
+            StagedUpload stagedUpload = uploads.get(id);
+            if (stagedUpload != null) {
+                synchronized (stagedUpload) {
+                    stagedUpload.committing = false;
+                }
+            }
+        }
+    }
+
+    public Upload abort(String id) {
+        StagedUpload stagedUpload = uploads.get(id);
+        if (stagedUpload == null) {
+            return null;
+        }
+        synchronized (stagedUpload) {
+            stagedUpload.checkOpen();
+            remove(id);
+        }
+        return stagedUpload.snapshot();
+    }
+
+    public void cleanup() {
+        long cutoff = System.currentTimeMillis() - expiry;
+        Iterator<StagedUpload> iterator = uploads.values().iterator();
+        while (iterator.hasNext()) {
+            StagedUpload stagedUpload = iterator.next();
+            synchronized (stagedUpload) {
+                if (!stagedUpload.committing && stagedUpload.upload.getUpdated().getTime() < cutoff) {
+                    LOGGER.info("Removing abandoned upload " + stagedUpload.upload.getId() + " of " + stagedUpload.upload.getName());
+                    iterator.remove();
+                    delete(stagedUpload.directory);
+                }
+            }
+        }
+        // Staging directories left behind by an earlier process are no longer tracked
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                // Only staging directories are ever removed, whatever else ends up alongside them
+                if (file.isDirectory() && UPLOAD_ID.matcher(file.getName()).matches() && !uploads.containsKey(file.getName()) && file.lastModified() < cutoff) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (cleanupTask != null) {
+            cleanupTask.cancel(false);
+            cleanupTask = null;
+        }
+    }
+
+    private synchronized void startCleanup() {
+        if (cleanupTask == null && !shutdown && expiry > 0) {
+            cleanupTask = MaintenanceScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    cleanup();
+                }
+            }, Math.max(expiry / 4, MIN_CLEANUP_INTERVAL));
+        }
+    }
+
+    private long getRemaining(StagedUpload stagedUpload, int number) {
+        if (maxSize <= 0) {
+            return Long.MAX_VALUE;
+        }
+        long size = 0;
+        for (Entry<Integer, Long> chunk : stagedUpload.chunks.entrySet()) {
+            if (chunk.getKey() != number) {
+                size += chunk.getValue();
+            }
+        }
+        return maxSize - size;
+    }
+
+    private void remove(String id) {
+        StagedUpload stagedUpload = uploads.remove(id);
+        if (stagedUpload != null) {
+            delete(stagedUpload.directory);
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            LOGGER.warn("Unable to delete " + file);
+        }
+    }
+
+    private static class StagedUpload {
+
+        private final Upload upload;
+        private final File directory;
+        private final SortedMap<Integer, Long> chunks = new TreeMap<Integer, Long>();
+        private boolean committing = false;
+
+        public StagedUpload(Upload upload, File directory) {
+            this.upload = upload;
+            this.directory = directory;
+        }
+
+        public void checkOpen() {
+            if (committing) {
+                throw new IllegalStateException("Upload " + upload.getId() + " is being committed");
+            }
+        }
+
+        public synchronized Upload snapshot() {
+            Upload snapshot = new Upload();
+            snapshot.setId(upload.getId());
+            snapshot.setPath(upload.getPath());
+            snapshot.setName(upload.getName());
+            snapshot.setMimeType(upload.getMimeType());
+            snapshot.setTags(upload.getTags());
+            snapshot.setStarted(upload.getStarted());
+            snapshot.setUpdated(upload.getUpdated());
+            snapshot.setChunks(new TreeSet<Integer>(chunks.keySet()));
+            long size = 0;
+            for (Entry<Integer, Long> chunk : chunks.entrySet()) {
+                size += chunk.getValue();
+            }
+            snapshot.setSize(size);
+            return snapshot;
+        }
+
+    }
+
+    private static class ChunkInputStream extends InputStream {
+
+        private final Iterator<File> files;
+        private InputStream current;
+
+        public ChunkInputStream(List<File> files) {
+            this.files = files.iterator();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (!files.hasNext()) {
+                        return -1;
+                    }
+                    current = new FileInputStream(files.next());
+                }
+                int read = current.read(bytes, offset, length);
+                if (read != -1) {
+                    return read;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+
+    }
+
+}
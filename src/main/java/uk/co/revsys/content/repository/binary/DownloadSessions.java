@@ -0,0 +1,99 @@
+package uk.co.revsys.content.repository.binary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+
+// Download sessions outlive the request that opened them, so they are capped and closed if the response is never written
+public class DownloadSessions {
+
+    private static final long MIN_REAP_INTERVAL = 1000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DownloadSessions.class);
+
+    private final Semaphore permits;
+    private final long maxWait;
+    private final long startTimeout;
+    private final Set<BinaryContent> contents = Collections.newSetFromMap(new ConcurrentHashMap<BinaryContent, Boolean>());
+    private ScheduledFuture<?> reaperTask;
+    private boolean shutdown = false;
+
+    public DownloadSessions(int maxSessions, long maxWait, long startTimeout) {
+        this.permits = new Semaphore(Math.max(maxSessions, 1), true);
+        this.maxWait = maxWait;
+        this.startTimeout = startTimeout;
+    }
+
+    public void acquire() throws RepositoryException {
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw new RepositoryException("Timed out after " + maxWait + "ms waiting for a download session");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for a download session", ex);
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public void opened(BinaryContent content) {
+        contents.add(content);
+        startReaper();
+    }
+
+    public void closed(BinaryContent content) {
+        if (contents.remove(content)) {
+            permits.release();
+        }
+    }
+
+    // Covers HEAD requests, failed preconditions and clients that go away before the response body is written
+    public void reap() {
+        long cutoff = System.currentTimeMillis() - startTimeout;
+        for (BinaryContent content : new ArrayList<BinaryContent>(contents)) {
+            if (!content.isStarted() && content.getOpened() < cutoff) {
+                LOGGER.warn("Closing download of " + content.getName() + " that was not started within " + startTimeout + "ms");
+                content.close();
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (reaperTask != null) {
+            reaperTask.cancel(false);
+            reaperTask = null;
+        }
+        for (BinaryContent content : new ArrayList<BinaryContent>(contents)) {
+            content.close();
+        }
+    }
+
+    public int getOpenCount() {
+        return contents.size();
+    }
+
+    private synchronized void startReaper() {
+        if (reaperTask == null && !shutdown && startTimeout > 0) {
+            reaperTask = MaintenanceScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    reap();
+                }
+            }, Math.max(startTimeout / 2, MIN_REAP_INTERVAL));
+        }
+    }
+
+}
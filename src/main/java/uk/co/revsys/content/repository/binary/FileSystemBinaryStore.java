@@ -0,0 +1,23 @@
+package uk.co.revsys.content.repository.binary;
+
+import java.io.File;
+
+// Resolves binaries to the files backing ModeShape's file system binary store, which are named by their SHA-1
+public class FileSystemBinaryStore {
+
+    private final File directory;
+
+    public FileSystemBinaryStore(String directory) {
+        this.directory = new File(directory);
+    }
+
+    public File getFile(String hash, long size) {
+        if (hash == null || hash.length() < 6) {
+            return null;
+        }
+        File file = new File(new File(new File(new File(directory, hash.substring(0, 2)), hash.substring(2, 4)), hash.substring(4, 6)), hash);
+        // Small binaries are kept inline with their node rather than in the store
+        return file.isFile() && file.length() == size ? file : null;
+    }
+
+}
@@ -0,0 +1,42 @@
+package uk.co.revsys.content.repository.binary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class UploadSpool {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File directory;
+
+    public UploadSpool(String directory) {
+        this.directory = directory == null ? null : new File(directory);
+        if (this.directory != null) {
+            this.directory.mkdirs();
+        }
+    }
+
+    public File spool(InputStream input) throws IOException {
+        File file = File.createTempFile("upload-", ".tmp", directory);
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+        } catch (IOException ex) {
+            file.delete();
+            throw ex;
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,160 @@
+package uk.co.revsys.content.repository.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.co.revsys.content.repository.model.AbstractNode;
+
+public class NodeCache {
+
+    private static final char VARIANT_SEPARATOR = '\u0000';
+
+    private final int maxSize;
+    // Bounded by variant rather than by path, as variants come straight from request parameters
+    private final LinkedHashMap<String, AbstractNode> entries;
+    private final Map<String, Set<String>> variantsByPath = new HashMap<String, Set<String>>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private long generation = 0;
+
+    public NodeCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, AbstractNode>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AbstractNode> eldest) {
+                if (size() > maxSize) {
+                    evictionCount.incrementAndGet();
+                    String key = eldest.getKey();
+                    String path = key.substring(0, key.indexOf(VARIANT_SEPARATOR));
+                    Set<String> variants = variantsByPath.get(path);
+                    if (variants != null) {
+                        variants.remove(key);
+                        if (variants.isEmpty()) {
+                            variantsByPath.remove(path);
+                        }
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public synchronized AbstractNode get(String path, String variant) {
+        AbstractNode node = entries.get(path + VARIANT_SEPARATOR + variant);
+        if (node == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        // Callers are free to modify what they get back, so cached nodes are never handed out
+        return NodeCopier.copy(node);
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized void put(String path, String variant, AbstractNode node, long readGeneration) {
+        // Anything invalidated while the node was being read may have made it stale
+        if (!isEnabled() || readGeneration != generation) {
+            return;
+        }
+        String key = path + VARIANT_SEPARATOR + variant;
+        Set<String> variants = variantsByPath.get(path);
+        if (variants == null) {
+            variants = new HashSet<String>();
+            variantsByPath.put(path, variants);
+        }
+        variants.add(key);
+        entries.put(key, NodeCopier.copy(node));
+    }
+
+    public synchronized void invalidate(String path) {
+        generation++;
+        if (removePath(path)) {
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    public synchronized void invalidateTree(String path) {
+        generation++;
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Iterator<Entry<String, Set<String>>> iterator = variantsByPath.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, Set<String>> entry = iterator.next();
+            String cachedPath = entry.getKey();
+            if (cachedPath.equals(path) || cachedPath.startsWith(prefix)) {
+                for (String key : entry.getValue()) {
+                    entries.remove(key);
+                }
+                iterator.remove();
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        variantsByPath.clear();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    private boolean removePath(String path) {
+        Set<String> variants = variantsByPath.remove(path);
+        if (variants == null) {
+            return false;
+        }
+        for (String key : variants) {
+            entries.remove(key);
+        }
+        return true;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+}
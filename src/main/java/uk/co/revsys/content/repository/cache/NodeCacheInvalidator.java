@@ -0,0 +1,109 @@
+package uk.co.revsys.content.repository.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.search.TagIndex;
+
+public class NodeCacheInvalidator implements EventListener {
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+    private static final String SYSTEM_PATH = "/jcr:system";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(NodeCacheInvalidator.class);
+
+    private final NodeCache nodeCache;
+    private final TagIndex tagIndex;
+    private final List<String> excludedPaths = new ArrayList<String>();
+
+    public NodeCacheInvalidator(NodeCache nodeCache, TagIndex tagIndex, String... excludedPaths) {
+        this.nodeCache = nodeCache;
+        this.tagIndex = tagIndex;
+        this.excludedPaths.add(SYSTEM_PATH);
+        this.excludedPaths.addAll(Arrays.asList(excludedPaths));
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                // A move into the trash is still a removal of its source
+                if (event.getType() == Event.NODE_MOVED) {
+                    Map info = event.getInfo();
+                    if (info != null && info.get("srcAbsPath") != null && !isExcluded(info.get("srcAbsPath").toString())) {
+                        invalidateTree(info.get("srcAbsPath").toString());
+                    }
+                }
+                // The change log and trash hold no content, so their writes never reach the cache or the tag index
+                if (isExcluded(path)) {
+                    continue;
+                }
+                switch (event.getType()) {
+                    case Event.NODE_ADDED:
+                        invalidateNode(path);
+                        break;
+                    case Event.NODE_REMOVED:
+                    case Event.NODE_MOVED:
+                        invalidateTree(path);
+                        break;
+                    default:
+                        invalidateNode(getParentPath(path));
+                }
+            } catch (RepositoryException ex) {
+                LOGGER.warn("Unable to process event, clearing node cache", ex);
+                nodeCache.clear();
+                tagIndex.clear();
+            }
+        }
+    }
+
+    public void invalidateNode(String path) {
+        String contentPath = getContentPath(path);
+        nodeCache.invalidate(contentPath);
+        nodeCache.invalidate(getParentPath(contentPath));
+        tagIndex.markStale(contentPath);
+    }
+
+    public void invalidateTree(String path) {
+        String contentPath = getContentPath(path);
+        nodeCache.invalidateTree(contentPath);
+        nodeCache.invalidate(getParentPath(contentPath));
+        tagIndex.markTreeStale(contentPath);
+    }
+
+    private boolean isExcluded(String path) {
+        for (String excludedPath : excludedPaths) {
+            if (path.equals(excludedPath) || path.startsWith(excludedPath + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Nodes with a namespace prefix (rcr:file, jcr:content, ...) belong to the nearest unprefixed ancestor
+    private String getContentPath(String path) {
+        String contentPath = path;
+        while (!contentPath.equals("/") && contentPath.substring(contentPath.lastIndexOf('/') + 1).contains(":")) {
+            contentPath = getParentPath(contentPath);
+        }
+        return contentPath;
+    }
+
+    private String getParentPath(String path) {
+        int index = path.lastIndexOf('/');
+        if (index <= 0) {
+            return "/";
+        }
+        return path.substring(0, index);
+    }
+
+}
@@ -0,0 +1,84 @@
+package uk.co.revsys.content.repository.cache;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import uk.co.revsys.content.repository.model.AbstractNode;
+import uk.co.revsys.content.repository.model.BinaryNode;
+import uk.co.revsys.content.repository.model.ChildNode;
+import uk.co.revsys.content.repository.model.ContainerNode;
+import uk.co.revsys.content.repository.model.ContentNode;
+import uk.co.revsys.content.repository.model.User;
+
+public class NodeCopier {
+
+    private NodeCopier() {
+    }
+
+    public static AbstractNode copy(AbstractNode node) {
+        if (node == null) {
+            return null;
+        }
+        AbstractNode copy;
+        if (node instanceof ContentNode) {
+            ContentNode contentNode = new ContentNode();
+            Map<String, String> properties = ((ContentNode) node).getProperties();
+            contentNode.setProperties(properties == null ? null : new HashMap<String, String>(properties));
+            copy = contentNode;
+        } else if (node instanceof ContainerNode) {
+            copy = new ContainerNode();
+        } else if (node instanceof BinaryNode) {
+            BinaryNode binaryNode = new BinaryNode();
+            binaryNode.setMimeType(((BinaryNode) node).getMimeType());
+            copy = binaryNode;
+        } else {
+            throw new IllegalArgumentException("Unable to copy " + node.getClass().getName());
+        }
+        if (node instanceof ContainerNode) {
+            ContainerNode container = (ContainerNode) node;
+            ContainerNode containerCopy = (ContainerNode) copy;
+            containerCopy.setChildCount(container.getChildCount());
+            containerCopy.setTruncated(container.getTruncated());
+            containerCopy.setChildren(copyChildren(container.getChildren()));
+        }
+        copy.setStatus(node.getStatus());
+        copy.setPath(node.getPath());
+        copy.setName(node.getName());
+        copy.setParent(node.getParent());
+        copy.setCreated(copyDate(node.getCreated()));
+        copy.setCreatedBy(copyUser(node.getCreatedBy()));
+        copy.setModified(copyDate(node.getModified()));
+        copy.setModifiedBy(copyUser(node.getModifiedBy()));
+        copy.setContentType(node.getContentType());
+        copy.setTags(node.getTags());
+        return copy;
+    }
+
+    private static List<ChildNode> copyChildren(List<ChildNode> children) {
+        if (children == null) {
+            return null;
+        }
+        List<ChildNode> copies = new LinkedList<ChildNode>();
+        for (ChildNode child : children) {
+            ChildNode copy = new ChildNode();
+            copy.setContentType(child.getContentType());
+            copy.setPath(child.getPath());
+            copy.setName(child.getName());
+            copy.setStatus(child.getStatus());
+            copy.setNode(copy(child.getNode()));
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private static Date copyDate(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    private static User copyUser(User user) {
+        return user == null ? null : new User(user.getId(), user.getName());
+    }
+
+}
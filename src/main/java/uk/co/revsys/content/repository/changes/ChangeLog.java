@@ -0,0 +1,264 @@
+package uk.co.revsys.content.repository.changes;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import org.modeshape.jcr.api.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+import uk.co.revsys.content.repository.model.Change;
+import uk.co.revsys.content.repository.model.ChangeFeed;
+import uk.co.revsys.content.repository.search.PreparedQueryCache;
+import uk.co.revsys.content.repository.session.SessionFactory;
+
+public class ChangeLog {
+
+    public static final String NODE_NAME = "rcr:changes";
+    private static final String SEQUENCE_PROPERTY = "rcr:sequence";
+    private static final String TYPE_PROPERTY = "rcr:change-type";
+    private static final String PATH_PROPERTY = "rcr:path";
+    private static final String TIMESTAMP_PROPERTY = "rcr:timestamp";
+    // Sequences are microsecond timestamps followed by three digits of node id, so they stay unique across a cluster
+    private static final long NODE_IDS = 1000;
+    private static final long SEQUENCES_PER_MILLI = 1000 * NODE_IDS;
+    private static final int SHARDS = 8;
+    private static final int MAX_KNOWN_BUCKETS = 1000;
+    private static final long HOUR = 3600000;
+    private static final long PRUNE_INTERVAL = HOUR;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ChangeLog.class);
+
+    private final PreparedQueryCache preparedQueryCache;
+    private final SessionFactory sessionFactory;
+    private final long delay;
+    private final long retention;
+    private final int nodeId;
+    private long lastSequence = 0;
+    // Sequences taken by writes that have not finished yet; readers never move past the oldest of them
+    private final TreeSet<Long> pendingSequences = new TreeSet<Long>();
+    private final Map<Session, List<Long>> pendingBySession = new WeakHashMap<Session, List<Long>>();
+    private final Set<String> knownBuckets = new HashSet<String>();
+    private final ScheduledFuture<?> pruneTask;
+
+    public ChangeLog(PreparedQueryCache preparedQueryCache, SessionFactory sessionFactory, long delay, long retention, int nodeId) {
+        this.preparedQueryCache = preparedQueryCache;
+        this.sessionFactory = sessionFactory;
+        this.delay = delay;
+        this.retention = retention;
+        // A random id is only unlikely to clash, so clustered deployments should configure one per node
+        this.nodeId = nodeId >= 0 && nodeId < NODE_IDS ? nodeId : new Random().nextInt((int) NODE_IDS);
+        if (retention > 0) {
+            this.pruneTask = MaintenanceScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    prune();
+                }
+            }, PRUNE_INTERVAL);
+        } else {
+            this.pruneTask = null;
+        }
+    }
+
+    // Entries are added to the caller's session so that they are saved together with the change itself
+    public void record(Session session, Change.Type type, String path) throws RepositoryException {
+        long sequence = nextSequence(session);
+        Node bucketNode = session.getNode(getBucket(sequence, path));
+        Node entry = bucketNode.addNode(Long.toString(sequence));
+        Calendar timestamp = Calendar.getInstance();
+        timestamp.setTimeInMillis(sequence / SEQUENCES_PER_MILLI);
+        entry.setProperty(SEQUENCE_PROPERTY, sequence);
+        entry.setProperty(TYPE_PROPERTY, type.name());
+        entry.setProperty(PATH_PROPERTY, path);
+        entry.setProperty(TIMESTAMP_PROPERTY, timestamp);
+    }
+
+    // Called once the session's changes have been saved or discarded
+    public void release(Session session) {
+        synchronized (pendingSequences) {
+            List<Long> sequences = pendingBySession.remove(session);
+            if (sequences != null) {
+                pendingSequences.removeAll(sequences);
+            }
+        }
+    }
+
+    public ChangeFeed read(Session session, long after, int limit) throws RepositoryException {
+        // Recent entries are held back so that writes on other nodes which took their sequence earlier but saved later are not skipped
+        long before = (System.currentTimeMillis() - delay) * SEQUENCES_PER_MILLI;
+        synchronized (pendingSequences) {
+            if (!pendingSequences.isEmpty()) {
+                before = Math.min(before, pendingSequences.first());
+            }
+        }
+        Query query = preparedQueryCache.prepare(session, "SELECT * FROM [nt:unstructured] WHERE ISDESCENDANTNODE([/" + NODE_NAME + "]) AND [" + SEQUENCE_PROPERTY + "] > $after AND [" + SEQUENCE_PROPERTY + "] < $before ORDER BY [" + SEQUENCE_PROPERTY + "]");
+        query.bindValue("after", session.getValueFactory().createValue(after));
+        query.bindValue("before", session.getValueFactory().createValue(before));
+        query.setOffset(0);
+        query.setLimit(limit + 1);
+        NodeIterator iterator = preparedQueryCache.execute(query).getNodes();
+        ChangeFeed feed = new ChangeFeed();
+        feed.setNext(after);
+        while (iterator.hasNext()) {
+            Node entry = iterator.nextNode();
+            if (feed.getChanges().size() == limit) {
+                feed.setMore(true);
+                break;
+            }
+            Change change = new Change();
+            change.setSequence(entry.getProperty(SEQUENCE_PROPERTY).getLong());
+            change.setType(Change.Type.valueOf(entry.getProperty(TYPE_PROPERTY).getString()));
+            change.setPath(entry.getProperty(PATH_PROPERTY).getString());
+            change.setTimestamp(entry.getProperty(TIMESTAMP_PROPERTY).getDate().getTime());
+            feed.getChanges().add(change);
+            feed.setNext(change.getSequence());
+        }
+        return feed;
+    }
+
+    // Entries older than the retention period are removed an hour bucket at a time; consumers further behind than that miss them
+    public void prune() {
+        long cutoff = System.currentTimeMillis() - retention;
+        Session session = null;
+        try {
+            session = sessionFactory.createSession();
+            if (!session.nodeExists("/" + NODE_NAME)) {
+                return;
+            }
+            NodeIterator nodeBuckets = session.getNode("/" + NODE_NAME).getNodes();
+            List<Node> expired = new ArrayList<Node>();
+            while (nodeBuckets.hasNext()) {
+                Node nodeBucket = nodeBuckets.nextNode();
+                // Earlier versions kept hour buckets directly under the change log
+                Date legacyHour = parseHour(nodeBucket.getName());
+                if (legacyHour != null) {
+                    if (legacyHour.getTime() + HOUR <= cutoff) {
+                        expired.add(nodeBucket);
+                    }
+                    continue;
+                }
+                NodeIterator hourBuckets = nodeBucket.getNodes();
+                while (hourBuckets.hasNext()) {
+                    Node hourBucket = hourBuckets.nextNode();
+                    Date hour = parseHour(hourBucket.getName());
+                    if (hour != null && hour.getTime() + HOUR <= cutoff) {
+                        expired.add(hourBucket);
+                    }
+                }
+            }
+            synchronized (knownBuckets) {
+                knownBuckets.clear();
+            }
+            for (Node hourBucket : expired) {
+                String path = hourBucket.getPath();
+                NodeIterator leaves = hourBucket.getNodes();
+                while (leaves.hasNext()) {
+                    leaves.nextNode().remove();
+                    session.save();
+                }
+                hourBucket.remove();
+                session.save();
+                LOGGER.debug("Pruned change log bucket " + path);
+            }
+        } catch (RepositoryException ex) {
+            LOGGER.warn("Unable to prune the change log", ex);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (pruneTask != null) {
+            pruneTask.cancel(false);
+        }
+    }
+
+    public static long toSequence(Date timestamp) {
+        return timestamp.getTime() * SEQUENCES_PER_MILLI - 1;
+    }
+
+    private long nextSequence(Session session) {
+        synchronized (pendingSequences) {
+            long candidate = System.currentTimeMillis() * SEQUENCES_PER_MILLI + nodeId;
+            lastSequence = Math.max(candidate, lastSequence + NODE_IDS);
+            pendingSequences.add(lastSequence);
+            List<Long> sequences = pendingBySession.get(session);
+            if (sequences == null) {
+                sequences = new ArrayList<Long>();
+                pendingBySession.put(session, sequences);
+            }
+            sequences.add(lastSequence);
+            return lastSequence;
+        }
+    }
+
+    // Entries are spread over a node, hour and minute-and-shard bucket so that concurrent writers rarely share a parent
+    private String getBucket(long sequence, String path) throws RepositoryException {
+        SimpleDateFormat hourFormat = createHourFormat();
+        SimpleDateFormat minuteFormat = new SimpleDateFormat("mm");
+        minuteFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date timestamp = new Date(sequence / SEQUENCES_PER_MILLI);
+        String nodeBucket = "n" + nodeId;
+        String hourBucket = hourFormat.format(timestamp);
+        String leafBucket = minuteFormat.format(timestamp) + "-" + ((path.hashCode() & Integer.MAX_VALUE) % SHARDS);
+        String bucketPath = "/" + NODE_NAME + "/" + nodeBucket + "/" + hourBucket + "/" + leafBucket;
+        synchronized (knownBuckets) {
+            if (knownBuckets.contains(bucketPath)) {
+                return bucketPath;
+            }
+            // Buckets are created and saved on their own, one creator at a time, so concurrent writes never add same-name siblings
+            Session session = sessionFactory.createSession();
+            try {
+                Node node = session.getRootNode();
+                for (String name : new String[]{NODE_NAME, nodeBucket, hourBucket, leafBucket}) {
+                    node = node.hasNode(name) ? node.getNode(name) : node.addNode(name);
+                }
+                session.save();
+            } finally {
+                session.logout();
+            }
+            if (knownBuckets.size() >= MAX_KNOWN_BUCKETS) {
+                knownBuckets.clear();
+            }
+            knownBuckets.add(bucketPath);
+            return bucketPath;
+        }
+    }
+
+    private Date parseHour(String name) {
+        if (name.length() != 10) {
+            return null;
+        }
+        try {
+            return createHourFormat().parse(name);
+        } catch (ParseException ex) {
+            return null;
+        }
+    }
+
+    private SimpleDateFormat createHourFormat() {
+        SimpleDateFormat hourFormat = new SimpleDateFormat("yyyyMMddHH");
+        hourFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        hourFormat.setLenient(false);
+        return hourFormat;
+    }
+
+}
@@ -0,0 +1,166 @@
+package uk.co.revsys.content.repository.deletion;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+import uk.co.revsys.content.repository.model.DeletionJob;
+import uk.co.revsys.content.repository.session.SessionFactory;
+
+// Jobs only live in memory, so anything left in the trash by a failed job or a restart is picked up by a periodic sweep
+public class BackgroundDeleter {
+
+    private static final long FINISHED_JOB_RETENTION = 3600000;
+    private static final long IDLE_THREAD_TIMEOUT = 60000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BackgroundDeleter.class);
+
+    private final SessionFactory sessionFactory;
+    private final int batchSize;
+    private final String trashPath;
+    private final ScheduledFuture<?> sweepTask;
+    private final ConcurrentMap<String, SubtreeDeletion> deletions = new ConcurrentHashMap<String, SubtreeDeletion>();
+    private final ThreadPoolExecutor executor;
+
+    public BackgroundDeleter(SessionFactory sessionFactory, int batchSize, String trashPath, long sweepInterval) {
+        this.sessionFactory = sessionFactory;
+        this.batchSize = batchSize;
+        this.trashPath = trashPath;
+        // Jobs run one at a time, and the thread goes away once the queue has been idle for a while so idle workspaces hold none
+        this.executor = new ThreadPoolExecutor(1, 1, IDLE_THREAD_TIMEOUT, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "content-repository-deletion");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        if (sweepInterval > 0) {
+            // The first sweep resumes whatever an earlier process left behind
+            this.sweepTask = MaintenanceScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, 0, sweepInterval);
+        } else {
+            this.sweepTask = null;
+        }
+    }
+
+    public synchronized DeletionJob submit(String id, String path, String trashPath) {
+        removeFinishedJobs();
+        SubtreeDeletion existing = deletions.get(id);
+        if (existing != null && existing.getJob().getFinished() == null) {
+            // The sweep got to the trash entry first
+            existing.getJob().setPath(path);
+            return existing.getJob();
+        }
+        DeletionJob job = new DeletionJob();
+        job.setId(id);
+        job.setPath(path);
+        job.setStarted(new Date());
+        SubtreeDeletion deletion = new SubtreeDeletion(job, trashPath, sessionFactory, batchSize);
+        deletions.put(id, deletion);
+        executor.execute(deletion);
+        return job;
+    }
+
+    public DeletionJob getJob(String id) {
+        SubtreeDeletion deletion = deletions.get(id);
+        return deletion == null ? null : deletion.getJob();
+    }
+
+    // Cancelling stops the job and marks what remains in the trash so that sweeps report it as cancelled rather than removing it
+    public DeletionJob cancel(String id) {
+        SubtreeDeletion deletion = deletions.get(id);
+        if (deletion == null) {
+            return null;
+        }
+        deletion.cancel();
+        return deletion.getJob();
+    }
+
+    public void sweep() {
+        Session session = null;
+        try {
+            session = sessionFactory.createSession();
+            if (!session.nodeExists(trashPath)) {
+                return;
+            }
+            NodeIterator iterator = session.getNode(trashPath).getNodes();
+            while (iterator.hasNext()) {
+                Node node = iterator.nextNode();
+                if (node.hasProperty(SubtreeDeletion.CANCELLED_PROPERTY)) {
+                    recordCancelled(node.getName(), node.hasProperty(SubtreeDeletion.PATH_PROPERTY) ? node.getProperty(SubtreeDeletion.PATH_PROPERTY).getString() : null, node.getPath());
+                } else {
+                    resume(node.getName(), node.getPath());
+                }
+            }
+        } catch (RepositoryException ex) {
+            LOGGER.warn("Unable to sweep " + trashPath, ex);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    private synchronized void resume(String id, String path) {
+        SubtreeDeletion deletion = deletions.get(id);
+        if (deletion == null || (deletion.getJob().getFinished() != null && deletion.getJob().getState() != DeletionJob.State.cancelled)) {
+            LOGGER.info("Resuming deletion of " + path);
+            submit(id, path, path);
+        }
+    }
+
+    // Cancelled jobs forgotten after a restart or once they expire are reported again from their marker in the trash
+    private synchronized void recordCancelled(String id, String path, String trashPath) {
+        if (deletions.containsKey(id)) {
+            return;
+        }
+        DeletionJob job = new DeletionJob();
+        job.setId(id);
+        job.setPath(path);
+        job.setState(DeletionJob.State.cancelled);
+        job.setFinished(new Date());
+        deletions.put(id, new SubtreeDeletion(job, trashPath, sessionFactory, batchSize));
+    }
+
+    public void shutdown() {
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+        }
+        for (SubtreeDeletion deletion : deletions.values()) {
+            deletion.stop();
+        }
+        executor.shutdown();
+    }
+
+    private void removeFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - FINISHED_JOB_RETENTION;
+        Iterator<SubtreeDeletion> iterator = deletions.values().iterator();
+        while (iterator.hasNext()) {
+            Date finished = iterator.next().getJob().getFinished();
+            if (finished != null && finished.getTime() < cutoff) {
+                iterator.remove();
+            }
+        }
+    }
+
+}
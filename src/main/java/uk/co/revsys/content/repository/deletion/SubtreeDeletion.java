@@ -0,0 +1,121 @@
+package uk.co.revsys.content.repository.deletion;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.version.VersionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.model.DeletionJob;
+import uk.co.revsys.content.repository.session.SessionFactory;
+
+public class SubtreeDeletion implements Runnable {
+
+    // Marks a trash entry whose deletion was cancelled, so that sweeps leave it alone even after a restart
+    static final String CANCELLED_PROPERTY = "rcr:deletion-cancelled";
+    static final String PATH_PROPERTY = "rcr:deleted-path";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SubtreeDeletion.class);
+
+    private final DeletionJob job;
+    private final String trashPath;
+    private final SessionFactory sessionFactory;
+    private final int batchSize;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    public SubtreeDeletion(DeletionJob job, String trashPath, SessionFactory sessionFactory, int batchSize) {
+        this.job = job;
+        this.trashPath = trashPath;
+        this.sessionFactory = sessionFactory;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+        Session session = null;
+        try {
+            session = sessionFactory.createSession();
+            VersionManager versionManager = session.getWorkspace().getVersionManager();
+            boolean finished = false;
+            while (!finished && !cancelled.get() && !stopped.get()) {
+                if (!session.nodeExists(trashPath)) {
+                    break;
+                }
+                Node subtreeRoot = session.getNode(trashPath);
+                List<Node> batch = new ArrayList<Node>();
+                collectLeaves(subtreeRoot, batch);
+                if (batch.isEmpty()) {
+                    batch.add(subtreeRoot);
+                    finished = true;
+                }
+                Set<String> parents = new LinkedHashSet<String>();
+                for (Node node : batch) {
+                    Node parent = node.getParent();
+                    if (parents.add(parent.getPath()) && parent.isNodeType(NodeType.MIX_VERSIONABLE) && !parent.isCheckedOut()) {
+                        versionManager.checkout(parent.getPath());
+                    }
+                }
+                for (Node node : batch) {
+                    node.remove();
+                }
+                session.save();
+                job.setDeleted(job.getDeleted() + batch.size());
+            }
+            if (cancelled.get() && session.nodeExists(trashPath)) {
+                Node subtreeRoot = session.getNode(trashPath);
+                if (subtreeRoot.isNodeType(NodeType.MIX_VERSIONABLE) && !subtreeRoot.isCheckedOut()) {
+                    versionManager.checkout(trashPath);
+                }
+                subtreeRoot.setProperty(CANCELLED_PROPERTY, true);
+                subtreeRoot.setProperty(PATH_PROPERTY, job.getPath());
+                session.save();
+            }
+            job.setState(cancelled.get() || stopped.get() ? DeletionJob.State.cancelled : DeletionJob.State.completed);
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to delete " + job.getPath(), ex);
+            job.setError(ex.getMessage());
+            job.setState(DeletionJob.State.failed);
+        } finally {
+            job.setFinished(new Date());
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    // nt:file nodes are removed whole, as their jcr:content child is mandatory
+    private void collectLeaves(Node node, List<Node> batch) throws RepositoryException {
+        NodeIterator iterator = node.getNodes();
+        while (iterator.hasNext() && batch.size() < batchSize) {
+            Node child = iterator.nextNode();
+            if (child.hasNodes() && !child.isNodeType(NodeType.NT_FILE)) {
+                collectLeaves(child, batch);
+            } else {
+                batch.add(child);
+            }
+        }
+    }
+
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    // Unlike cancelling, stopping leaves the trash entry to be resumed by a later sweep
+    public void stop() {
+        stopped.set(true);
+    }
+
+    public DeletionJob getJob() {
+        return job;
+    }
+
+}
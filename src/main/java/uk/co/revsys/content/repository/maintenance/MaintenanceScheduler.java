@@ -0,0 +1,73 @@
+package uk.co.revsys.content.repository.maintenance;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Background housekeeping for every workspace runs on one small shared pool, so idle workspaces cost no threads
+public class MaintenanceScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MaintenanceScheduler.class);
+    private static final int POOL_SIZE = 2;
+
+    private static ScheduledExecutorService executor;
+
+    private MaintenanceScheduler() {
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable task, long interval) {
+        return schedule(task, interval, interval);
+    }
+
+    public static ScheduledFuture<?> schedule(final Runnable task, long initialDelay, long interval) {
+        return getExecutor().scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                // An exception would otherwise cancel every later run of the task
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Maintenance task failed", ex);
+                }
+            }
+        }, initialDelay, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static void execute(Runnable task) {
+        getExecutor().execute(task);
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(POOL_SIZE, new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "content-repository-maintenance-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            pool.setRemoveOnCancelPolicy(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+}
@@ -1,7 +1,9 @@
 package uk.co.revsys.content.repository.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.Date;
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public abstract class AbstractNode {
 
     private Status status = Status.published;
@@ -0,0 +1,78 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BatchOperation {
+
+    public enum Type {
+        create,
+        update,
+        delete;
+    }
+
+    private Type type;
+    private String path;
+    private String name;
+    private Status status = Status.published;
+    private String tags = "";
+    private String contentType;
+    private Map<String, String> properties = new HashMap<String, String>();
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getTags() {
+        return tags;
+    }
+
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public void setProperties(Map<String, String> properties) {
+        this.properties = properties;
+    }
+
+}
@@ -0,0 +1,60 @@
+package uk.co.revsys.content.repository.model;
+
+public class BatchResult {
+
+    private int created;
+    private int updated;
+    private int deleted;
+    private int saves;
+    private int failedIndex = -1;
+    private String error;
+
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(int updated) {
+        this.updated = updated;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(int deleted) {
+        this.deleted = deleted;
+    }
+
+    public int getSaves() {
+        return saves;
+    }
+
+    public void setSaves(int saves) {
+        this.saves = saves;
+    }
+
+    public int getFailedIndex() {
+        return failedIndex;
+    }
+
+    public void setFailedIndex(int failedIndex) {
+        this.failedIndex = failedIndex;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+}
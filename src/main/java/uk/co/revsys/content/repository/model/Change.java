@@ -0,0 +1,50 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.Date;
+
+public class Change {
+
+    public enum Type {
+        created,
+        updated,
+        deleted;
+    }
+
+    private long sequence;
+    private Type type;
+    private String path;
+    private Date timestamp;
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+}
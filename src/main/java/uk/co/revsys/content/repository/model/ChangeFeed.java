@@ -0,0 +1,36 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class ChangeFeed {
+
+    private List<Change> changes = new LinkedList<Change>();
+    private long next;
+    private boolean more;
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<Change> changes) {
+        this.changes = changes;
+    }
+
+    public long getNext() {
+        return next;
+    }
+
+    public void setNext(long next) {
+        this.next = next;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+
+    public void setMore(boolean more) {
+        this.more = more;
+    }
+
+}
@@ -1,11 +1,15 @@
 package uk.co.revsys.content.repository.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ChildNode {
 
     private String contentType;
     private String path;
     private String name;
     private Status status = Status.published;
+    private AbstractNode node;
 
     public String getContentType() {
         return contentType;
@@ -38,6 +42,14 @@ public class ChildNode {
     public void setStatus(Status status) {
         this.status = status;
     }
+
+    public AbstractNode getNode() {
+        return node;
+    }
+
+    public void setNode(AbstractNode node) {
+        this.node = node;
+    }
     
     
     
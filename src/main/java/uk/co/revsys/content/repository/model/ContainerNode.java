@@ -6,6 +6,8 @@ import java.util.List;
 public class ContainerNode extends AbstractNode{
 
     private List<ChildNode> children = new LinkedList<ChildNode>();
+    private Long childCount;
+    private Boolean truncated;
 
     public List<ChildNode> getChildren() {
         return children;
@@ -14,5 +16,21 @@ public class ContainerNode extends AbstractNode{
     public void setChildren(List<ChildNode> children) {
         this.children = children;
     }
+
+    public Long getChildCount() {
+        return childCount;
+    }
+
+    public void setChildCount(Long childCount) {
+        this.childCount = childCount;
+    }
+
+    public Boolean getTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(Boolean truncated) {
+        this.truncated = truncated;
+    }
     
 }
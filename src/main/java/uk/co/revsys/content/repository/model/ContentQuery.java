@@ -0,0 +1,143 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class ContentQuery {
+
+    public enum Order {
+        asc,
+        desc;
+    }
+
+    private String path;
+    private String contentType;
+    private List<String> tags = new LinkedList<String>();
+    private Status status;
+    private Date createdFrom;
+    private Date createdTo;
+    private Date modifiedFrom;
+    private Date modifiedTo;
+    private Map<String, String> properties = new HashMap<String, String>();
+    private String orderBy;
+    private Order order = Order.asc;
+    private int offset;
+    private int limit;
+    private List<String> facets = new LinkedList<String>();
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Date getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public void setCreatedFrom(Date createdFrom) {
+        this.createdFrom = createdFrom;
+    }
+
+    public Date getCreatedTo() {
+        return createdTo;
+    }
+
+    public void setCreatedTo(Date createdTo) {
+        this.createdTo = createdTo;
+    }
+
+    public Date getModifiedFrom() {
+        return modifiedFrom;
+    }
+
+    public void setModifiedFrom(Date modifiedFrom) {
+        this.modifiedFrom = modifiedFrom;
+    }
+
+    public Date getModifiedTo() {
+        return modifiedTo;
+    }
+
+    public void setModifiedTo(Date modifiedTo) {
+        this.modifiedTo = modifiedTo;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public void setProperties(Map<String, String> properties) {
+        this.properties = properties;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public List<String> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(List<String> facets) {
+        this.facets = facets;
+    }
+
+}
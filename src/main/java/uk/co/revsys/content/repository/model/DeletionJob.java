@@ -0,0 +1,78 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.Date;
+
+public class DeletionJob {
+
+    public enum State {
+        running,
+        completed,
+        cancelled,
+        failed;
+    }
+
+    private String id;
+    private String path;
+    private volatile State state = State.running;
+    private volatile long deleted;
+    private Date started;
+    private volatile Date finished;
+    private volatile String error;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(long deleted) {
+        this.deleted = deleted;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public void setStarted(Date started) {
+        this.started = started;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    public void setFinished(Date finished) {
+        this.finished = finished;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+}
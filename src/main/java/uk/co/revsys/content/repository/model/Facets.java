@@ -0,0 +1,36 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Facets {
+
+    private Map<String, Map<String, Long>> counts = new LinkedHashMap<String, Map<String, Long>>();
+    private long scanned;
+    private boolean truncated;
+
+    public Map<String, Map<String, Long>> getCounts() {
+        return counts;
+    }
+
+    public void setCounts(Map<String, Map<String, Long>> counts) {
+        this.counts = counts;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    public void setScanned(long scanned) {
+        this.scanned = scanned;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+}
@@ -0,0 +1,61 @@
+package uk.co.revsys.content.repository.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PropertyChange {
+
+    public enum Type {
+        added,
+        removed,
+        changed;
+    }
+
+    private String name;
+    private Type type;
+    private String from;
+    private String to;
+
+    public PropertyChange() {
+    }
+
+    public PropertyChange(String name, Type type, String from, String to) {
+        this.name = name;
+        this.type = type;
+        this.from = from;
+        this.to = to;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+}
@@ -0,0 +1,32 @@
+package uk.co.revsys.content.repository.model;
+
+public class SearchSummary {
+
+    private Facets facets;
+    private String next;
+
+    public SearchSummary() {
+    }
+
+    public SearchSummary(Facets facets, String next) {
+        this.facets = facets;
+        this.next = next;
+    }
+
+    public Facets getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Facets facets) {
+        this.facets = facets;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+}
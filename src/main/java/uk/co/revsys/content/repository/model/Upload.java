@@ -0,0 +1,91 @@
+package uk.co.revsys.content.repository.model;
+
+import java.util.Date;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+public class Upload {
+
+    private String id;
+    private String path;
+    private String name;
+    private String mimeType;
+    private String tags;
+    private SortedSet<Integer> chunks = new TreeSet<Integer>();
+    private long size;
+    private Date started;
+    private Date updated;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getTags() {
+        return tags;
+    }
+
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    public SortedSet<Integer> getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(SortedSet<Integer> chunks) {
+        this.chunks = chunks;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public void setStarted(Date started) {
+        this.started = started;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(Date updated) {
+        this.updated = updated;
+    }
+
+}
@@ -1,30 +1,54 @@
 package uk.co.revsys.content.repository.rest;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.jcr.RepositoryException;
+import javax.jcr.version.VersionException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import org.apache.wink.common.model.multipart.BufferedInMultiPart;
+import org.apache.wink.common.model.multipart.InMultiPart;
 import org.apache.wink.common.model.multipart.InPart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.BatchException;
 import uk.co.revsys.content.repository.ContentRepositoryService;
 import uk.co.revsys.content.repository.ContentRepositoryServiceFactory;
+import uk.co.revsys.content.repository.Projection;
+import uk.co.revsys.content.repository.binary.BinaryOutput;
+import uk.co.revsys.content.repository.model.AbstractNode;
+import uk.co.revsys.content.repository.model.BatchOperation;
+import uk.co.revsys.content.repository.model.BatchResult;
 import uk.co.revsys.content.repository.model.Binary;
-import uk.co.revsys.content.repository.model.SearchResult;
+import uk.co.revsys.content.repository.model.BinaryNode;
+import uk.co.revsys.content.repository.model.ChangeFeed;
+import uk.co.revsys.content.repository.model.ContentQuery;
+import uk.co.revsys.content.repository.model.SearchSummary;
+import uk.co.revsys.content.repository.model.DeletionJob;
+import uk.co.revsys.content.repository.search.SearchResultHandler;
+import uk.co.revsys.content.repository.search.StreamingSearchOutput;
 import uk.co.revsys.content.repository.model.Status;
+import uk.co.revsys.content.repository.model.Upload;
 import uk.co.revsys.content.repository.security.AuthorisationHandler;
 
 @Path("/")
@@ -44,18 +68,28 @@ public abstract class AbstractContentRepositoryRestService {
     
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRootNode(){
-        return getNode("");
+    public Response getRootNode(@QueryParam("childOffset") int childOffset, @QueryParam("childLimit") int childLimit, @QueryParam("fields") String fields, @QueryParam("children") @DefaultValue("true") boolean children, @QueryParam("depth") int depth){
+        return getNode("", childOffset, childLimit, fields, children, depth);
     }
     
     @GET
     @Path("/{path:.*}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getNode(@PathParam("path") String path) {
+    public Response getNode(@PathParam("path") String path, @QueryParam("childOffset") int childOffset, @QueryParam("childLimit") int childLimit, @QueryParam("fields") String fields, @QueryParam("children") @DefaultValue("true") boolean children, @QueryParam("depth") int depth) {
         try {
             String workspace = authorisationHandler.getUserWorkspace();
             ContentRepositoryService repository = repositoryFactory.getInstance(workspace);
-            return Response.ok(objectMapper.writeValueAsString(repository.get(path, false))).build();
+            AbstractNode node;
+            if (depth > 0) {
+                // A tree lists children at every level within its own node budget, so child paging does not apply to it
+                if (childOffset != 0 || childLimit != 0 || !children) {
+                    return Response.status(Response.Status.BAD_REQUEST).entity("childOffset, childLimit and children cannot be combined with depth").build();
+                }
+                node = repository.getTree(path, false, depth, Projection.parse(fields, true));
+            } else {
+                node = repository.get(path, false, childOffset, childLimit, Projection.parse(fields, children));
+            }
+            return Response.ok(objectMapper.writeValueAsString(node)).build();
         } catch (JsonProcessingException ex) {
             LOGGER.error("Unable to get node " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
@@ -70,27 +104,219 @@ public abstract class AbstractContentRepositoryRestService {
     public Response deleteNode(@PathParam("path") String path) {
         try {
             ContentRepositoryService repository = getRepository();
-            repository.delete(path);
-            return Response.noContent().build();
+            DeletionJob job = repository.scheduleDelete(path);
+            if (job == null) {
+                return Response.noContent().build();
+            }
+            return Response.status(Response.Status.ACCEPTED).entity(objectMapper.writeValueAsString(job)).type(MediaType.APPLICATION_JSON).build();
         } catch (RepositoryException ex) {
             LOGGER.error("Unable to delete node", ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to delete node", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/deletions/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDeletion(@PathParam("id") String id) {
+        try {
+            DeletionJob job = getRepository().getDeletionJob(id);
+            if (job == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            return Response.ok(objectMapper.writeValueAsString(job)).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to get deletion " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @DELETE
+    @Path("/deletions/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response cancelDeletion(@PathParam("id") String id) {
+        try {
+            DeletionJob job = getRepository().cancelDeletion(id);
+            if (job == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            return Response.ok(objectMapper.writeValueAsString(job)).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to cancel deletion " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response batch(String json) {
+        try {
+            ContentRepositoryService repository = getRepository();
+            List<BatchOperation> operations = objectMapper.readValue(json, new TypeReference<List<BatchOperation>>() {
+            });
+            BatchResult result;
+            Response.Status status = Response.Status.OK;
+            try {
+                result = repository.batch(operations);
+            } catch (BatchException ex) {
+                // Earlier saves are not rolled back, so the caller is told which operation failed and how far the batch got
+                LOGGER.error("Unable to process batch", ex);
+                result = ex.getResult();
+                status = Response.Status.INTERNAL_SERVER_ERROR;
+            }
+            return Response.status(status).entity(objectMapper.writeValueAsString(result)).type(MediaType.APPLICATION_JSON).build();
+        } catch (IOException ex) {
+            LOGGER.error("Unable to process batch", ex);
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to process batch", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
         }
     }
 
     @GET
     @Path("/query")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response findNodes(@QueryParam("query") String query, @QueryParam("offset") int offset, @QueryParam("limit") int limit) {
+    public Response findNodes(@QueryParam("query") final String query, @QueryParam("offset") final int offset, @QueryParam("limit") final int limit, @QueryParam("facet") final List<String> facets, @QueryParam("cursor") final String cursor) {
+        final ContentRepositoryService repository = getRepository();
+        return Response.ok(new StreamingSearchOutput(objectMapper, !facets.isEmpty(), cursor != null) {
+
+            @Override
+            protected SearchSummary search(SearchResultHandler handler) throws RepositoryException {
+                // An empty cursor asks for the first page by cursor, and each page returns the cursor for the next
+                if (cursor != null) {
+                    return new SearchSummary(null, repository.findAfter(query, false, cursor, limit, handler));
+                }
+                return new SearchSummary(repository.find(query, false, offset, limit, facets, handler), null);
+            }
+        }).build();
+    }
+
+    @POST
+    @Path("/search")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(String json) {
+        try {
+            final ContentRepositoryService repository = getRepository();
+            final ContentQuery query = objectMapper.readValue(json, ContentQuery.class);
+            return Response.ok(new StreamingSearchOutput(objectMapper, query.getFacets() != null && !query.getFacets().isEmpty()) {
+
+                @Override
+                protected SearchSummary search(SearchResultHandler handler) throws RepositoryException {
+                    return new SearchSummary(repository.query(query, false, handler), null);
+                }
+            }).build();
+        } catch (IOException ex) {
+            LOGGER.error("Unable to search", ex);
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/tags")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getTagCounts() {
+        try {
+            ContentRepositoryService repository = getRepository();
+            return Response.ok(objectMapper.writeValueAsString(repository.getTagCounts())).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to get tag counts", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to get tag counts", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/tagged")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response findTagged(@QueryParam("tag") List<String> tags, @QueryParam("all") @DefaultValue("true") boolean matchAll) {
+        try {
+            ContentRepositoryService repository = getRepository();
+            return Response.ok(objectMapper.writeValueAsString(repository.findTagged(tags, matchAll))).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to find tagged nodes", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to find tagged nodes", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getChanges(@QueryParam("after") long after, @QueryParam("since") long since, @QueryParam("limit") int limit) {
+        try {
+            ContentRepositoryService repository = getRepository();
+            ChangeFeed feed;
+            if (after == 0 && since > 0) {
+                feed = repository.getChangesSince(new Date(since), limit);
+            } else {
+                feed = repository.getChanges(after, limit);
+            }
+            return Response.ok(objectMapper.writeValueAsString(feed)).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to get changes", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to get changes", ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/version/{path:.*}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getVersion(@PathParam("path") String path, @QueryParam("name") String name) {
         try {
             ContentRepositoryService repository = getRepository();
-            List<SearchResult> results = repository.find(query, false, offset, limit);
-            return Response.ok(objectMapper.writeValueAsString(results)).build();
+            return Response.ok(objectMapper.writeValueAsString(repository.getVersion(path, name))).build();
+        } catch (VersionException ex) {
+            return Response.status(Response.Status.NOT_FOUND).entity(ex.getMessage()).build();
         } catch (RepositoryException ex) {
-            LOGGER.error("Unable to find nodes", ex);
+            LOGGER.error("Unable to get version " + name + " of " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
         } catch (JsonProcessingException ex) {
-            LOGGER.error("Unable to find nodes", ex);
+            LOGGER.error("Unable to get version " + name + " of " + path, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/version-diff/{path:.*}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response diffVersions(@PathParam("path") String path, @QueryParam("from") String from, @QueryParam("to") String to) {
+        try {
+            ContentRepositoryService repository = getRepository();
+            return Response.ok(objectMapper.writeValueAsString(repository.diffVersions(path, from, to))).build();
+        } catch (VersionException ex) {
+            return Response.status(Response.Status.NOT_FOUND).entity(ex.getMessage()).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to diff versions " + from + " and " + to + " of " + path, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to diff versions " + from + " and " + to + " of " + path, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/version-count/{path:.*}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getVersionCount(@PathParam("path") String path) {
+        try {
+            ContentRepositoryService repository = getRepository();
+            return Response.ok(String.valueOf(repository.getVersionCount(path))).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to count versions for " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
         }
     }
@@ -98,10 +324,10 @@ public abstract class AbstractContentRepositoryRestService {
     @GET
     @Path("/versions/{path:.*}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getVersions(@PathParam("path") String path) {
+    public Response getVersions(@PathParam("path") String path, @QueryParam("offset") int offset, @QueryParam("limit") int limit) {
         try {
             ContentRepositoryService repository = getRepository();
-            return Response.ok(objectMapper.writeValueAsString(repository.getVersionHistory(path))).build();
+            return Response.ok(objectMapper.writeValueAsString(repository.getVersionHistory(path, offset, limit))).build();
         } catch (JsonProcessingException ex) {
             LOGGER.error("Unable to get versions for " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
@@ -115,11 +341,14 @@ public abstract class AbstractContentRepositoryRestService {
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Path("/binary/{path:.*}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response saveBinary(@PathParam("path") String path, BufferedInMultiPart bufferedInMultiPart) {
+    public Response saveBinary(@PathParam("path") String path, InMultiPart inMultiPart) {
         try {
             ContentRepositoryService repository = getRepository();
-            List<InPart> parts = bufferedInMultiPart.getParts();
-            InPart part = parts.get(0);
+            // Parts are read straight off the request, so the upload is never held in memory
+            if (!inMultiPart.hasNext()) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("No file part").build();
+            }
+            InPart part = inMultiPart.next();
             Binary binary = new Binary();
             String contentDisposition = part.getHeaders().getFirst("Content-Disposition");
             String fileName = null;
@@ -139,19 +368,130 @@ public abstract class AbstractContentRepositoryRestService {
         }
     }
 
+    @POST
+    @Path("/uploads")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response initiateUpload(@QueryParam("path") @DefaultValue("") String path, @QueryParam("name") String name, @QueryParam("type") String mimeType, @QueryParam("tags") @DefaultValue("") String tags) {
+        if (name == null || mimeType == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("name and type are required").build();
+        }
+        try {
+            Upload upload = getRepository().initiateUpload(path, name, mimeType, tags);
+            return Response.ok(objectMapper.writeValueAsString(upload)).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to initiate upload of " + name, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to initiate upload of " + name, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/uploads/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getUpload(@PathParam("id") String id) {
+        try {
+            Upload upload = getRepository().getUpload(id);
+            if (upload == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            return Response.ok(objectMapper.writeValueAsString(upload)).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to get upload " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @PUT
+    @Path("/uploads/{id}/chunks/{number}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response uploadChunk(@PathParam("id") String id, @PathParam("number") int number, InputStream content) {
+        try {
+            Upload upload = getRepository().uploadChunk(id, number, content);
+            if (upload == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            return Response.ok(objectMapper.writeValueAsString(upload)).build();
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+        } catch (IllegalStateException ex) {
+            return Response.status(Response.Status.CONFLICT).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to upload chunk " + number + " of " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to upload chunk " + number + " of " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @POST
+    @Path("/uploads/{id}/commit")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response commitUpload(@PathParam("id") String id) {
+        try {
+            BinaryNode binaryNode = getRepository().commitUpload(id);
+            if (binaryNode == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            return Response.ok(objectMapper.writeValueAsString(binaryNode)).build();
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+        } catch (IllegalStateException ex) {
+            return Response.status(Response.Status.CONFLICT).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to commit upload " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to commit upload " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
+    @DELETE
+    @Path("/uploads/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response abortUpload(@PathParam("id") String id) {
+        try {
+            Upload upload = getRepository().abortUpload(id);
+            if (upload == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            return Response.ok(objectMapper.writeValueAsString(upload)).build();
+        } catch (IllegalStateException ex) {
+            return Response.status(Response.Status.CONFLICT).entity(ex.getMessage()).build();
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Unable to abort upload " + id, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
     @GET
     @Path("/binary/{path:.*}")
-    public Response getBinary(@PathParam("path") String path) {
+    public Response getBinary(@PathParam("path") String path, @Context Request request, @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange) {
         try {
             ContentRepositoryService repository = getRepository();
-            Binary attachment = repository.getBinary(path);
-            return Response.ok(attachment.getContent()).type(attachment.getMimeType()).build();
+            return BinaryOutput.createResponse(repository.openBinary(path), request, range, ifRange);
         } catch (RepositoryException ex) {
             LOGGER.error("Unable to get binary at " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
         }
     }
 
+    @HEAD
+    @Path("/binary/{path:.*}")
+    public Response getBinaryHeaders(@PathParam("path") String path, @Context Request request, @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange) {
+        try {
+            ContentRepositoryService repository = getRepository();
+            return BinaryOutput.createResponse(repository.openBinary(path), request, range, ifRange, true);
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to get binary headers at " + path, ex);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
+        }
+    }
+
     public boolean isAdministrator() {
         return authorisationHandler.isAdministrator();
     }
@@ -2,21 +2,34 @@ package uk.co.revsys.content.repository.rest;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
 import java.util.List;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.co.revsys.content.repository.ContentRepositoryService;
 import uk.co.revsys.content.repository.ContentRepositoryServiceFactory;
-import uk.co.revsys.content.repository.model.Binary;
-import uk.co.revsys.content.repository.model.SearchResult;
+import uk.co.revsys.content.repository.Projection;
+import uk.co.revsys.content.repository.binary.BinaryOutput;
+import uk.co.revsys.content.repository.model.AbstractNode;
+import uk.co.revsys.content.repository.model.ContentQuery;
+import uk.co.revsys.content.repository.model.SearchSummary;
+import uk.co.revsys.content.repository.search.SearchResultHandler;
+import uk.co.revsys.content.repository.search.StreamingSearchOutput;
 
 @Path("/public")
 public class PublicContentRepositoryRestService {
@@ -34,10 +47,20 @@ public class PublicContentRepositoryRestService {
     @GET
     @Path("/{workspace}/{path:.*}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getNode(@PathParam("workspace") String workspace, @PathParam("path") String path) {
+    public Response getNode(@PathParam("workspace") String workspace, @PathParam("path") String path, @QueryParam("childOffset") int childOffset, @QueryParam("childLimit") int childLimit, @QueryParam("fields") String fields, @QueryParam("children") @DefaultValue("true") boolean children, @QueryParam("depth") int depth) {
         try {
             ContentRepositoryService repository = repositoryFactory.getInstance(workspace);
-            return Response.ok(objectMapper.writeValueAsString(repository.get(path, true))).build();
+            AbstractNode node;
+            if (depth > 0) {
+                // A tree lists children at every level within its own node budget, so child paging does not apply to it
+                if (childOffset != 0 || childLimit != 0 || !children) {
+                    return Response.status(Response.Status.BAD_REQUEST).entity("childOffset, childLimit and children cannot be combined with depth").build();
+                }
+                node = repository.getTree(path, true, depth, Projection.parse(fields, true));
+            } else {
+                node = repository.get(path, true, childOffset, childLimit, Projection.parse(fields, children));
+            }
+            return Response.ok(objectMapper.writeValueAsString(node)).build();
         } catch (JsonProcessingException ex) {
             LOGGER.error("Unable to get node " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
@@ -50,29 +73,62 @@ public class PublicContentRepositoryRestService {
     @GET
     @Path("/{workspace}/query")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response findNodes(@PathParam("workspace") String workspace, @QueryParam("query") String query, @QueryParam("offset") int offset, @QueryParam("limit") int limit) {
+    public Response findNodes(@PathParam("workspace") String workspace, @QueryParam("query") final String query, @QueryParam("offset") final int offset, @QueryParam("limit") final int limit, @QueryParam("facet") final List<String> facets, @QueryParam("cursor") final String cursor) {
+        final ContentRepositoryService repository = repositoryFactory.getInstance(workspace);
+        return Response.ok(new StreamingSearchOutput(objectMapper, !facets.isEmpty(), cursor != null) {
+
+            @Override
+            protected SearchSummary search(SearchResultHandler handler) throws RepositoryException {
+                // An empty cursor asks for the first page by cursor, and each page returns the cursor for the next
+                if (cursor != null) {
+                    return new SearchSummary(null, repository.findAfter(query, true, cursor, limit, handler));
+                }
+                return new SearchSummary(repository.find(query, true, offset, limit, facets, handler), null);
+            }
+        }).build();
+    }
+
+    @POST
+    @Path("/{workspace}/search")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(@PathParam("workspace") String workspace, String json) {
+        try {
+            final ContentRepositoryService repository = repositoryFactory.getInstance(workspace);
+            final ContentQuery query = objectMapper.readValue(json, ContentQuery.class);
+            return Response.ok(new StreamingSearchOutput(objectMapper, query.getFacets() != null && !query.getFacets().isEmpty()) {
+
+                @Override
+                protected SearchSummary search(SearchResultHandler handler) throws RepositoryException {
+                    return new SearchSummary(repository.query(query, true, handler), null);
+                }
+            }).build();
+        } catch (IOException ex) {
+            LOGGER.error("Unable to search", ex);
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/{workspace}/binary/{path:.*}")
+    public Response getBinary(@PathParam("workspace") String workspace, @PathParam("path") String path, @Context Request request, @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange) {
         try {
             ContentRepositoryService repository = repositoryFactory.getInstance(workspace);
-            List<SearchResult> results = repository.find(query, true, offset, limit);
-            return Response.ok(objectMapper.writeValueAsString(results)).build();
+            return BinaryOutput.createResponse(repository.openBinary(path), request, range, ifRange);
         } catch (RepositoryException ex) {
-            LOGGER.error("Unable to find nodes", ex);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException ex) {
-            LOGGER.error("Unable to find nodes", ex);
+            LOGGER.error("Unable to get binary at " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
         }
     }
 
-    @GET
+    @HEAD
     @Path("/{workspace}/binary/{path:.*}")
-    public Response getBinary(@PathParam("workspace") String workspace, @PathParam("path") String path) {
+    public Response getBinaryHeaders(@PathParam("workspace") String workspace, @PathParam("path") String path, @Context Request request, @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange) {
         try {
             ContentRepositoryService repository = repositoryFactory.getInstance(workspace);
-            Binary attachment = repository.getBinary(path);
-            return Response.ok(attachment.getContent()).type(attachment.getMimeType()).build();
+            return BinaryOutput.createResponse(repository.openBinary(path), request, range, ifRange, true);
         } catch (RepositoryException ex) {
-            LOGGER.error("Unable to get binary at " + path, ex);
+            LOGGER.error("Unable to get binary headers at " + path, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage()).build();
         }
     }
@@ -0,0 +1,50 @@
+package uk.co.revsys.content.repository.search;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import uk.co.revsys.content.repository.model.Facets;
+
+public class FacetCounter {
+
+    private final long deadline;
+    private final int maxRows;
+    private final Facets facets = new Facets();
+    private long rows = 0;
+
+    public FacetCounter(List<String> fields, long timeLimit, int maxRows) {
+        this.deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+        this.maxRows = maxRows;
+        for (String field : fields) {
+            facets.getCounts().put(field, new TreeMap<String, Long>());
+        }
+    }
+
+    // Once either limit is reached the remaining rows are left uncounted and the facets are marked as truncated
+    public boolean isCounting() {
+        if (facets.isTruncated()) {
+            return false;
+        }
+        if ((maxRows > 0 && rows >= maxRows) || System.currentTimeMillis() > deadline) {
+            facets.setTruncated(true);
+            return false;
+        }
+        return true;
+    }
+
+    public void countRow() {
+        rows++;
+    }
+
+    public void count(String field, String value) {
+        Map<String, Long> values = facets.getCounts().get(field);
+        Long count = values.get(value);
+        values.put(value, count == null ? 1 : count + 1);
+    }
+
+    public Facets getFacets() {
+        facets.setScanned(rows);
+        return facets;
+    }
+
+}
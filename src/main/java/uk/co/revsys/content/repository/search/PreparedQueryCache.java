@@ -0,0 +1,100 @@
+package uk.co.revsys.content.repository.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import org.modeshape.jcr.api.query.Query;
+import org.modeshape.jcr.api.query.QueryResult;
+
+public class PreparedQueryCache {
+
+    // Queries belong to the session that created them, so they are cached per pooled session
+    private final Map<Session, Map<String, Query>> queries = new WeakHashMap<Session, Map<String, Query>>();
+    private final int maxQueriesPerSession;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong parseTime = new AtomicLong();
+    private final AtomicLong executeCount = new AtomicLong();
+    private final AtomicLong executeTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public PreparedQueryCache(int maxQueriesPerSession) {
+        this.maxQueriesPerSession = Math.max(maxQueriesPerSession, 1);
+    }
+
+    public Query prepare(Session session, String statement) throws RepositoryException {
+        Map<String, Query> sessionQueries;
+        synchronized (this) {
+            sessionQueries = queries.get(session);
+            if (sessionQueries == null) {
+                sessionQueries = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                        if (size() > maxQueriesPerSession) {
+                            evictionCount.incrementAndGet();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+                queries.put(session, sessionQueries);
+            }
+        }
+        // A pooled session is only ever used by one thread at a time
+        Query query = sessionQueries.get(statement);
+        if (query != null) {
+            hitCount.incrementAndGet();
+            return query;
+        }
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        query = (Query) session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+        parseTime.addAndGet(System.nanoTime() - start);
+        sessionQueries.put(statement, query);
+        return query;
+    }
+
+    public QueryResult execute(Query query) throws RepositoryException {
+        long start = System.nanoTime();
+        try {
+            return (QueryResult) query.execute();
+        } finally {
+            executeCount.incrementAndGet();
+            executeTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public synchronized void clear() {
+        queries.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getParseTime() {
+        return TimeUnit.NANOSECONDS.toMillis(parseTime.get());
+    }
+
+    public long getExecuteCount() {
+        return executeCount.get();
+    }
+
+    public long getExecuteTime() {
+        return TimeUnit.NANOSECONDS.toMillis(executeTime.get());
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+}
@@ -0,0 +1,42 @@
+package uk.co.revsys.content.repository.search;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import java.nio.charset.Charset;
+import javax.jcr.query.InvalidQueryException;
+
+public class SearchCursor {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\n";
+
+    private final long modified;
+    private final String path;
+
+    public SearchCursor(long modified, String path) {
+        this.modified = modified;
+        this.path = path;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String encode() {
+        return Base64Variants.MODIFIED_FOR_URL.encode((Long.toString(modified) + SEPARATOR + path).getBytes(UTF8));
+    }
+
+    public static SearchCursor decode(String cursor) throws InvalidQueryException {
+        try {
+            String decoded = new String(Base64Variants.MODIFIED_FOR_URL.decode(cursor), UTF8);
+            int index = decoded.indexOf(SEPARATOR);
+            return new SearchCursor(Long.parseLong(decoded.substring(0, index)), decoded.substring(index + 1));
+        } catch (RuntimeException ex) {
+            throw new InvalidQueryException("Invalid cursor " + cursor, ex);
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package uk.co.revsys.content.repository.search;
+
+import java.util.LinkedList;
+import java.util.List;
+import uk.co.revsys.content.repository.model.SearchResult;
+
+public class SearchResultCollector implements SearchResultHandler {
+
+    private final List<SearchResult> results = new LinkedList<SearchResult>();
+
+    @Override
+    public void handle(SearchResult result) {
+        results.add(result);
+    }
+
+    public List<SearchResult> getResults() {
+        return results;
+    }
+    
+}
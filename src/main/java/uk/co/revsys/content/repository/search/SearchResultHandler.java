@@ -0,0 +1,10 @@
+package uk.co.revsys.content.repository.search;
+
+import javax.jcr.RepositoryException;
+import uk.co.revsys.content.repository.model.SearchResult;
+
+public interface SearchResultHandler {
+
+    public void handle(SearchResult result) throws RepositoryException;
+    
+}
@@ -0,0 +1,83 @@
+package uk.co.revsys.content.repository.search;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.InvalidQueryException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.model.SearchSummary;
+import uk.co.revsys.content.repository.model.SearchResult;
+
+public abstract class StreamingSearchOutput implements StreamingOutput {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(StreamingSearchOutput.class);
+
+    private final ObjectMapper objectMapper;
+    private final boolean wrapped;
+    private final boolean paged;
+
+    public StreamingSearchOutput(ObjectMapper objectMapper, boolean wrapped) {
+        this(objectMapper, wrapped, false);
+    }
+
+    // Paged output always carries next, which is null on the last page
+    public StreamingSearchOutput(ObjectMapper objectMapper, boolean wrapped, boolean paged) {
+        this.objectMapper = objectMapper;
+        this.wrapped = wrapped || paged;
+        this.paged = paged;
+    }
+
+    protected abstract SearchSummary search(SearchResultHandler handler) throws RepositoryException;
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        // Facets and cursors are only known once the results have been written, so they follow them in a wrapping object
+        if (wrapped) {
+            generator.writeStartObject();
+            generator.writeFieldName("results");
+        }
+        generator.writeStartArray();
+        SearchSummary summary;
+        try {
+            summary = search(new SearchResultHandler() {
+
+                @Override
+                public void handle(SearchResult result) throws RepositoryException {
+                    try {
+                        objectMapper.writeValue(generator, result);
+                    } catch (IOException ex) {
+                        throw new RepositoryException(ex);
+                    }
+                }
+            });
+        } catch (InvalidQueryException ex) {
+            // Nothing has been flushed yet, so the client still gets a proper status
+            throw new WebApplicationException(ex, Response.Status.BAD_REQUEST);
+        } catch (RepositoryException ex) {
+            // The response may already have started, so the only thing left to do is abort it
+            LOGGER.error("Unable to stream search results", ex);
+            throw new WebApplicationException(ex);
+        }
+        generator.writeEndArray();
+        if (wrapped) {
+            if (summary.getFacets() != null) {
+                generator.writeFieldName("facets");
+                objectMapper.writeValue(generator, summary.getFacets());
+            }
+            if (paged || summary.getNext() != null) {
+                generator.writeStringField("next", summary.getNext());
+            }
+            generator.writeEndObject();
+        }
+        generator.flush();
+    }
+    
+}
@@ -0,0 +1,183 @@
+package uk.co.revsys.content.repository.search;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class TagIndex {
+
+    private static final int MAX_STALE_PATHS = 10000;
+
+    private final Map<String, Set<String>> pathsByTag = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> tagsByPath = new HashMap<String, Set<String>>();
+    // Changed paths are only re-read when the index is next used
+    private final Set<String> stalePaths = new HashSet<String>();
+    private final Set<String> staleTrees = new HashSet<String>();
+    private boolean built = false;
+    private boolean building = false;
+    // Bumped whenever the index gives up on tracking changes, so that a build running at the time is not trusted
+    private int generation = 0;
+
+    public synchronized boolean isBuilt() {
+        return built;
+    }
+
+    public synchronized int startBuild() {
+        building = true;
+        return generation;
+    }
+
+    public synchronized boolean rebuild(Map<String, ? extends Collection<String>> entries, int buildGeneration) {
+        building = false;
+        if (buildGeneration != generation) {
+            return false;
+        }
+        pathsByTag.clear();
+        tagsByPath.clear();
+        for (Entry<String, ? extends Collection<String>> entry : entries.entrySet()) {
+            index(entry.getKey(), entry.getValue());
+        }
+        built = true;
+        return true;
+    }
+
+    public synchronized void clear() {
+        pathsByTag.clear();
+        tagsByPath.clear();
+        stalePaths.clear();
+        staleTrees.clear();
+        built = false;
+        building = false;
+    }
+
+    public synchronized void markStale(String path) {
+        // Changes made while the index is being built may have been missed by it
+        if (built || building) {
+            stalePaths.add(path);
+            checkStaleLimit();
+        }
+    }
+
+    public synchronized void markTreeStale(String path) {
+        if (built || building) {
+            staleTrees.add(path);
+            checkStaleLimit();
+        }
+    }
+
+    // Past this many unapplied changes a full rebuild is cheaper than replaying them
+    private void checkStaleLimit() {
+        if (stalePaths.size() + staleTrees.size() > MAX_STALE_PATHS) {
+            pathsByTag.clear();
+            tagsByPath.clear();
+            stalePaths.clear();
+            staleTrees.clear();
+            built = false;
+            generation++;
+        }
+    }
+
+    public synchronized Set<String> drainStalePaths() {
+        Set<String> paths = new HashSet<String>(stalePaths);
+        stalePaths.clear();
+        return paths;
+    }
+
+    public synchronized Set<String> drainStaleTrees() {
+        Set<String> paths = new HashSet<String>(staleTrees);
+        staleTrees.clear();
+        return paths;
+    }
+
+    public synchronized void index(String path, Collection<String> tags) {
+        remove(path);
+        if (tags.isEmpty()) {
+            return;
+        }
+        tagsByPath.put(path, new LinkedHashSet<String>(tags));
+        for (String tag : tags) {
+            Set<String> paths = pathsByTag.get(tag);
+            if (paths == null) {
+                paths = new HashSet<String>();
+                pathsByTag.put(tag, paths);
+            }
+            paths.add(path);
+        }
+    }
+
+    public synchronized void remove(String path) {
+        Set<String> tags = tagsByPath.remove(path);
+        if (tags == null) {
+            return;
+        }
+        for (String tag : tags) {
+            Set<String> paths = pathsByTag.get(tag);
+            paths.remove(path);
+            if (paths.isEmpty()) {
+                pathsByTag.remove(tag);
+            }
+        }
+    }
+
+    public synchronized void removeTree(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        remove(path);
+        Iterator<String> iterator = new HashSet<String>(tagsByPath.keySet()).iterator();
+        while (iterator.hasNext()) {
+            String indexedPath = iterator.next();
+            if (indexedPath.startsWith(prefix)) {
+                remove(indexedPath);
+            }
+        }
+    }
+
+    public synchronized Set<String> getPaths(List<String> tags, boolean matchAll) {
+        Set<String> result = new TreeSet<String>();
+        if (tags.isEmpty()) {
+            return result;
+        }
+        if (!matchAll) {
+            for (String tag : tags) {
+                Set<String> paths = pathsByTag.get(tag);
+                if (paths != null) {
+                    result.addAll(paths);
+                }
+            }
+            return result;
+        }
+        // Intersect starting from the rarest tag so the work is bounded by the smallest posting set
+        Set<String> smallest = null;
+        for (String tag : tags) {
+            Set<String> paths = pathsByTag.get(tag);
+            if (paths == null) {
+                return result;
+            }
+            if (smallest == null || paths.size() < smallest.size()) {
+                smallest = paths;
+            }
+        }
+        for (String path : smallest) {
+            if (tagsByPath.get(path).containsAll(tags)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    public synchronized Map<String, Integer> getCounts() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Entry<String, Set<String>> entry : pathsByTag.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+
+}
@@ -0,0 +1,10 @@
+package uk.co.revsys.content.repository.session;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+public interface SessionFactory {
+
+    public Session createSession() throws RepositoryException;
+    
+}
@@ -0,0 +1,199 @@
+package uk.co.revsys.content.repository.session;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+
+public class SessionPool {
+
+    private static final long MIN_EVICTION_INTERVAL = 1000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SessionPool.class);
+
+    private final SessionFactory sessionFactory;
+    private final SessionPoolConfig config;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledSession> idleSessions = new LinkedBlockingDeque<PooledSession>();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalBorrowWaitTime = new AtomicLong();
+    private final AtomicLong maxBorrowWaitTime = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final ScheduledFuture<?> evictionTask;
+    private volatile boolean closed = false;
+
+    public SessionPool(SessionFactory sessionFactory, SessionPoolConfig config) {
+        this.sessionFactory = sessionFactory;
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        // Sessions of a workspace that stops getting traffic are evicted without waiting for the next borrow
+        if (config.getMaxIdleTime() > 0) {
+            this.evictionTask = MaintenanceScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    evictIdleSessions();
+                }
+            }, Math.max(config.getMaxIdleTime() / 2, MIN_EVICTION_INTERVAL));
+        } else {
+            this.evictionTask = null;
+        }
+    }
+
+    public Session borrowSession() throws RepositoryException {
+        if (closed) {
+            throw new RepositoryException("Session pool has been closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.getMaxWait(), TimeUnit.MILLISECONDS)) {
+                throw new RepositoryException("Timed out after " + config.getMaxWait() + "ms waiting for a session");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for a session", ex);
+        }
+        recordBorrow(System.nanoTime() - start);
+        try {
+            evictIdleSessions();
+            PooledSession pooledSession;
+            while ((pooledSession = idleSessions.pollFirst()) != null) {
+                Session session = pooledSession.getSession();
+                if (session.isLive()) {
+                    try {
+                        session.refresh(false);
+                        return session;
+                    } catch (RepositoryException ex) {
+                        LOGGER.warn("Unable to refresh pooled session, discarding it", ex);
+                        session.logout();
+                    }
+                }
+                evictedCount.incrementAndGet();
+            }
+            Session session = sessionFactory.createSession();
+            createdCount.incrementAndGet();
+            return session;
+        } catch (RepositoryException ex) {
+            permits.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    public void returnSession(Session session) {
+        try {
+            if (closed || !session.isLive()) {
+                session.logout();
+                return;
+            }
+            if (session.hasPendingChanges()) {
+                session.refresh(false);
+            }
+            idleSessions.offerFirst(new PooledSession(session, System.currentTimeMillis()));
+        } catch (RepositoryException ex) {
+            LOGGER.warn("Unable to return session to pool, discarding it", ex);
+            session.logout();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void evictIdleSessions() {
+        if (config.getMaxIdleTime() <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - config.getMaxIdleTime();
+        PooledSession oldest;
+        while ((oldest = idleSessions.peekLast()) != null && oldest.getLastUsed() < cutoff) {
+            if (idleSessions.removeLastOccurrence(oldest)) {
+                oldest.getSession().logout();
+                evictedCount.incrementAndGet();
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+        }
+        PooledSession pooledSession;
+        while ((pooledSession = idleSessions.pollFirst()) != null) {
+            pooledSession.getSession().logout();
+        }
+    }
+
+    private void recordBorrow(long waitTime) {
+        borrowCount.incrementAndGet();
+        totalBorrowWaitTime.addAndGet(waitTime);
+        long max = maxBorrowWaitTime.get();
+        while (waitTime > max && !maxBorrowWaitTime.compareAndSet(max, waitTime)) {
+            max = maxBorrowWaitTime.get();
+        }
+    }
+
+    public int getIdleCount() {
+        return idleSessions.size();
+    }
+
+    public int getActiveCount() {
+        return config.getMaxSize() - permits.availablePermits();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTotalBorrowWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalBorrowWaitTime.get());
+    }
+
+    public long getMaxBorrowWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxBorrowWaitTime.get());
+    }
+
+    public double getAverageBorrowWaitTime() {
+        long count = borrowCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalBorrowWaitTime.get() / count / 1000000;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    private static class PooledSession {
+
+        private final Session session;
+        private final long lastUsed;
+
+        public PooledSession(Session session, long lastUsed) {
+            this.session = session;
+            this.lastUsed = lastUsed;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+    }
+}
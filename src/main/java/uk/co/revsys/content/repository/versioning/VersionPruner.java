@@ -0,0 +1,303 @@
+package uk.co.revsys.content.repository.versioning;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
+import javax.jcr.version.Version;
+import javax.jcr.version.VersionHistory;
+import javax.jcr.version.VersionIterator;
+import javax.jcr.version.VersionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.changes.ChangeLog;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+import uk.co.revsys.content.repository.model.Change;
+import uk.co.revsys.content.repository.model.ChangeFeed;
+import uk.co.revsys.content.repository.session.SessionFactory;
+
+public class VersionPruner implements Runnable {
+
+    private static final long DAY = 86400000;
+    private static final int CHANGE_BATCH_SIZE = 1000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(VersionPruner.class);
+
+    private final SessionFactory sessionFactory;
+    private final VersionRetention retention;
+    private final String statement;
+    private final ChangeLog changeLog;
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong removedCount = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private volatile Date lastRun;
+    private volatile boolean shutdown = false;
+    private ScheduledFuture<?> pruneTask;
+    // Position in the change log up to which written nodes have been pruned, or -1 before the first full scan
+    private long lastSequence = -1;
+    private long lastFullRun = 0;
+
+    public VersionPruner(SessionFactory sessionFactory, VersionRetention retention, String statement, ChangeLog changeLog) {
+        this.sessionFactory = sessionFactory;
+        this.retention = retention;
+        this.statement = statement;
+        this.changeLog = changeLog;
+    }
+
+    public synchronized void start() {
+        if (pruneTask == null && !shutdown && retention.isEnabled() && retention.getPruneInterval() > 0) {
+            pruneTask = MaintenanceScheduler.schedule(this, retention.getPruneInterval(), retention.getPruneInterval());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            prune();
+        } catch (RepositoryException ex) {
+            LOGGER.error("Unable to prune version histories", ex);
+        }
+    }
+
+    // Only nodes written since the last run can have gained versions, so most runs follow the change log;
+    // versions kept for a number of days still expire on nodes nobody writes to, which the periodic full scan catches
+    public synchronized int prune() throws RepositoryException {
+        if (!retention.isEnabled()) {
+            return 0;
+        }
+        long started = System.currentTimeMillis();
+        int histories = 0;
+        int removed = 0;
+        long bytes = 0;
+        Session session = sessionFactory.createSession();
+        try {
+            VersionManager versionManager = session.getWorkspace().getVersionManager();
+            boolean full = lastSequence < 0 || retention.getFullPruneInterval() <= 0 || started - lastFullRun >= retention.getFullPruneInterval();
+            Iterator<String> paths;
+            long nextSequence;
+            if (full) {
+                // Anything written from here on is picked up by the next incremental run
+                nextSequence = ChangeLog.toSequence(new Date(started));
+                paths = getVersionablePaths(session);
+            } else {
+                ChangedPaths changedPaths = getChangedPaths(session);
+                nextSequence = changedPaths.next;
+                paths = changedPaths.paths.iterator();
+            }
+            while (paths.hasNext() && !shutdown) {
+                String path = paths.next();
+                VersionHistory history;
+                String baseVersion;
+                try {
+                    history = versionManager.getVersionHistory(path);
+                    baseVersion = versionManager.getBaseVersion(path).getName();
+                } catch (RepositoryException ex) {
+                    // The node was removed or lost its versionable mixin since the query ran
+                    LOGGER.debug("Skipping version history of " + path, ex);
+                    continue;
+                }
+                histories++;
+                for (Version version : getExpiredVersions(history, baseVersion, started)) {
+                    long size = getSize(version.getFrozenNode());
+                    try {
+                        history.removeVersion(version.getName());
+                    } catch (RepositoryException ex) {
+                        LOGGER.debug("Unable to remove version " + version.getName() + " of " + path, ex);
+                        continue;
+                    }
+                    removed++;
+                    bytes += size;
+                    if (!pause()) {
+                        break;
+                    }
+                }
+            }
+            lastSequence = nextSequence;
+            if (full) {
+                lastFullRun = started;
+            }
+        } finally {
+            session.logout();
+        }
+        runCount.incrementAndGet();
+        removedCount.addAndGet(removed);
+        reclaimedBytes.addAndGet(bytes);
+        lastRun = new Date(started);
+        LOGGER.info("Pruned " + removed + " versions (" + bytes + " bytes) from " + histories + " version histories in " + (System.currentTimeMillis() - started) + "ms");
+        return removed;
+    }
+
+    private Iterator<String> getVersionablePaths(Session session) throws RepositoryException {
+        Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+        final RowIterator rows = query.execute().getRows();
+        return new Iterator<String>() {
+
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public String next() {
+                try {
+                    return rows.nextRow().getPath();
+                } catch (RepositoryException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // A write also checkpoints the parent, so both are candidates
+    private ChangedPaths getChangedPaths(Session session) throws RepositoryException {
+        ChangedPaths changedPaths = new ChangedPaths();
+        changedPaths.next = lastSequence;
+        ChangeFeed feed;
+        do {
+            feed = changeLog.read(session, changedPaths.next, CHANGE_BATCH_SIZE);
+            for (Change change : feed.getChanges()) {
+                if (change.getType() != Change.Type.deleted) {
+                    changedPaths.paths.add(change.getPath());
+                }
+                int index = change.getPath().lastIndexOf('/');
+                changedPaths.paths.add(index <= 0 ? "/" : change.getPath().substring(0, index));
+            }
+            changedPaths.next = feed.getNext();
+        } while (feed.isMore() && !shutdown);
+        return changedPaths;
+    }
+
+    // Walks the history newest first, keeping the latest versions, recent versions and the newest version of each day
+    private List<Version> getExpiredVersions(VersionHistory history, String baseVersion, long now) throws RepositoryException {
+        String rootVersion = history.getRootVersion().getName();
+        List<Version> versions = new ArrayList<Version>();
+        VersionIterator iterator = history.getAllVersions();
+        while (iterator.hasNext()) {
+            Version version = iterator.nextVersion();
+            if (!version.getName().equals(rootVersion)) {
+                versions.add(version);
+            }
+        }
+        Collections.sort(versions, new Comparator<Version>() {
+
+            @Override
+            public int compare(Version version1, Version version2) {
+                try {
+                    return version2.getCreated().compareTo(version1.getCreated());
+                } catch (RepositoryException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        long cutoff = now - retention.getKeepDays() * DAY;
+        Set<Long> keptDays = new HashSet<Long>();
+        List<Version> expired = new ArrayList<Version>();
+        for (int i = 0; i < versions.size(); i++) {
+            Version version = versions.get(i);
+            Calendar created = version.getCreated();
+            long day = getDay(created);
+            boolean keep = version.getName().equals(baseVersion)
+                    || i < retention.getKeepLast()
+                    || (retention.getKeepDays() > 0 && created.getTimeInMillis() >= cutoff)
+                    || (retention.isKeepDaily() && !keptDays.contains(day));
+            if (keep) {
+                keptDays.add(day);
+            } else {
+                expired.add(version);
+            }
+        }
+        return expired;
+    }
+
+    private long getDay(Calendar calendar) {
+        return (calendar.getTimeInMillis() + calendar.getTimeZone().getOffset(calendar.getTimeInMillis())) / DAY;
+    }
+
+    private long getSize(Node node) throws RepositoryException {
+        long size = 0;
+        PropertyIterator properties = node.getProperties();
+        while (properties.hasNext()) {
+            Property property = properties.nextProperty();
+            if (property.isMultiple()) {
+                for (long length : property.getLengths()) {
+                    size += Math.max(length, 0);
+                }
+            } else {
+                size += Math.max(property.getLength(), 0);
+            }
+        }
+        NodeIterator children = node.getNodes();
+        while (children.hasNext()) {
+            size += getSize(children.nextNode());
+        }
+        return size;
+    }
+
+    private boolean pause() {
+        if (shutdown || retention.getPruneDelay() <= 0) {
+            return !shutdown;
+        }
+        try {
+            Thread.sleep(retention.getPruneDelay());
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        synchronized (this) {
+            if (pruneTask != null) {
+                pruneTask.cancel(false);
+                pruneTask = null;
+            }
+        }
+    }
+
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    public long getRemovedCount() {
+        return removedCount.get();
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    public Date getLastRun() {
+        return lastRun;
+    }
+
+    private static class ChangedPaths {
+
+        private final Set<String> paths = new LinkedHashSet<String>();
+        private long next;
+
+    }
+
+}
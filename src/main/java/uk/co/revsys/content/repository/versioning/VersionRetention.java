@@ -0,0 +1,64 @@
+package uk.co.revsys.content.repository.versioning;
+
+public class VersionRetention {
+
+    private int keepLast = 0;
+    private int keepDays = 0;
+    private boolean keepDaily = true;
+    private long pruneInterval = 3600000;
+    private long pruneDelay = 50;
+    private long fullPruneInterval = 86400000;
+
+    public int getKeepLast() {
+        return keepLast;
+    }
+
+    public void setKeepLast(int keepLast) {
+        this.keepLast = keepLast;
+    }
+
+    public int getKeepDays() {
+        return keepDays;
+    }
+
+    public void setKeepDays(int keepDays) {
+        this.keepDays = keepDays;
+    }
+
+    public boolean isKeepDaily() {
+        return keepDaily;
+    }
+
+    public void setKeepDaily(boolean keepDaily) {
+        this.keepDaily = keepDaily;
+    }
+
+    public long getPruneInterval() {
+        return pruneInterval;
+    }
+
+    public void setPruneInterval(long pruneInterval) {
+        this.pruneInterval = pruneInterval;
+    }
+
+    public long getPruneDelay() {
+        return pruneDelay;
+    }
+
+    public void setPruneDelay(long pruneDelay) {
+        this.pruneDelay = pruneDelay;
+    }
+
+    public long getFullPruneInterval() {
+        return fullPruneInterval;
+    }
+
+    public void setFullPruneInterval(long fullPruneInterval) {
+        this.fullPruneInterval = fullPruneInterval;
+    }
+
+    public boolean isEnabled() {
+        return keepLast > 0 || keepDays > 0;
+    }
+
+}
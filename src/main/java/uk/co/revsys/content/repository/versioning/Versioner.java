@@ -0,0 +1,286 @@
+package uk.co.revsys.content.repository.versioning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.version.VersionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.revsys.content.repository.maintenance.MaintenanceScheduler;
+import uk.co.revsys.content.repository.session.SessionFactory;
+
+public class Versioner {
+
+    private static final String VERSIONABLE_MIXIN = "mix:versionable";
+    private static final int MAX_TRACKED_CHECKINS = 10000;
+    private static final int LOCK_STRIPES = 64;
+    private static final long MIN_CHECKPOINT_INTERVAL = 1000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(Versioner.class);
+
+    private final VersioningConfig config;
+    private final VersioningPolicy workspacePolicy;
+    private final ConcurrentMap<String, Long> lastCheckins = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong versionCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong trailingCount = new AtomicLong();
+    private final SessionFactory sessionFactory;
+    // Coalesced checkpoints whose window has yet to close, by path, with the time it closes
+    private final ConcurrentMap<String, Long> pendingCheckpoints = new ConcurrentHashMap<String, Long>();
+    // Writes that have checked a node out but not yet checked it back in
+    private final ConcurrentMap<String, AtomicInteger> activeWrites = new ConcurrentHashMap<String, AtomicInteger>();
+    // Paths each write session has checked out and not yet checked in, so a failed write can give them up
+    private final Map<Session, List<String>> checkouts = Collections.synchronizedMap(new WeakHashMap<Session, List<String>>());
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private ScheduledFuture<?> checkpointTask;
+    private boolean shutdown = false;
+
+    public Versioner(String workspace, VersioningConfig config) {
+        this(workspace, config, null);
+    }
+
+    public Versioner(String workspace, VersioningConfig config, SessionFactory sessionFactory) {
+        this.config = config;
+        this.sessionFactory = sessionFactory;
+        VersioningPolicy policy = config.getWorkspacePolicies().get(workspace);
+        this.workspacePolicy = policy == null ? config.getDefaultPolicy() : policy;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public VersioningPolicy getPolicy(String contentType) {
+        VersioningPolicy policy = contentType == null ? null : config.getContentTypePolicies().get(contentType);
+        return policy == null ? workspacePolicy : policy;
+    }
+
+    public void makeVersionable(Node node, String contentType) throws RepositoryException {
+        if (getPolicy(contentType) != VersioningPolicy.none) {
+            node.addMixin(VERSIONABLE_MIXIN);
+        }
+    }
+
+    public void checkout(VersionManager versionManager, Node node) throws RepositoryException {
+        if (!node.isNew() && node.isNodeType(VERSIONABLE_MIXIN)) {
+            String path = node.getPath();
+            // Registered under the path's lock so that a trailing checkpoint cannot check the node in underneath the write
+            synchronized (getLock(path)) {
+                AtomicInteger count = activeWrites.get(path);
+                if (count == null) {
+                    activeWrites.put(path, new AtomicInteger(1));
+                } else {
+                    count.incrementAndGet();
+                }
+                versionManager.checkout(path);
+            }
+            List<String> paths = checkouts.get(node.getSession());
+            if (paths == null) {
+                paths = new ArrayList<String>();
+                checkouts.put(node.getSession(), paths);
+            }
+            paths.add(path);
+        }
+    }
+
+    // A parent checkpoint records a change to one of the node's children rather than to the node itself
+    public void checkin(VersionManager versionManager, Node node, String contentType, boolean parentCheckpoint) throws RepositoryException {
+        writeCount.incrementAndGet();
+        if (!node.isNodeType(VERSIONABLE_MIXIN)) {
+            return;
+        }
+        String path = node.getPath();
+        List<String> paths = checkouts.get(node.getSession());
+        if (paths != null && paths.remove(path)) {
+            endWrite(path);
+        }
+        if (shouldCheckin(getPolicy(contentType), path, parentCheckpoint)) {
+            pendingCheckpoints.remove(path);
+            versionManager.checkin(path);
+            versionCount.incrementAndGet();
+            if (lastCheckins.size() > MAX_TRACKED_CHECKINS) {
+                pruneCheckins();
+            }
+            lastCheckins.put(path, System.currentTimeMillis());
+        } else {
+            skippedCount.incrementAndGet();
+            Long lastCheckin = lastCheckins.get(path);
+            if (lastCheckin != null && getPolicy(contentType) == VersioningPolicy.coalesce) {
+                pendingCheckpoints.putIfAbsent(path, lastCheckin + config.getCoalesceWindow());
+                scheduleCheckpoints();
+            }
+        }
+    }
+
+    // Coalescing only versions the leading edge of a window, so the last state in each window is checked in once it closes
+    public void checkpoint() {
+        if (pendingCheckpoints.isEmpty() || sessionFactory == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Session session = null;
+        try {
+            for (Entry<String, Long> pending : pendingCheckpoints.entrySet()) {
+                String path = pending.getKey();
+                if (pending.getValue() > now || !pendingCheckpoints.remove(path, pending.getValue())) {
+                    continue;
+                }
+                if (session == null) {
+                    session = sessionFactory.createSession();
+                }
+                synchronized (getLock(path)) {
+                    if (activeWrites.containsKey(path)) {
+                        // The write in progress will check the node in itself
+                        continue;
+                    }
+                    session.refresh(false);
+                    if (!session.nodeExists(path)) {
+                        continue;
+                    }
+                    Node node = session.getNode(path);
+                    if (node.isNodeType(VERSIONABLE_MIXIN) && node.isCheckedOut()) {
+                        session.getWorkspace().getVersionManager().checkin(path);
+                        lastCheckins.put(path, System.currentTimeMillis());
+                        versionCount.incrementAndGet();
+                        trailingCount.incrementAndGet();
+                    }
+                }
+            }
+        } catch (RepositoryException ex) {
+            LOGGER.warn("Unable to create trailing checkpoints", ex);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    // Called when a write session is returned; anything still checked out belongs to a write whose save failed
+    public void release(Session session) {
+        List<String> paths = checkouts.remove(session);
+        if (paths == null || paths.isEmpty()) {
+            return;
+        }
+        try {
+            session.refresh(false);
+        } catch (RepositoryException ex) {
+            LOGGER.warn("Unable to discard the changes of a failed write", ex);
+        }
+        for (String path : paths) {
+            endWrite(path);
+            try {
+                synchronized (getLock(path)) {
+                    if (activeWrites.containsKey(path) || !session.nodeExists(path)) {
+                        continue;
+                    }
+                    VersionManager versionManager = session.getWorkspace().getVersionManager();
+                    if (versionManager.isCheckedOut(path)) {
+                        versionManager.checkin(path);
+                        pendingCheckpoints.remove(path);
+                        lastCheckins.put(path, System.currentTimeMillis());
+                        versionCount.incrementAndGet();
+                    }
+                }
+            } catch (RepositoryException ex) {
+                LOGGER.warn("Unable to check in " + path + " after a failed write", ex);
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (checkpointTask != null) {
+            checkpointTask.cancel(false);
+            checkpointTask = null;
+        }
+    }
+
+    private synchronized void scheduleCheckpoints() {
+        if (checkpointTask == null && !shutdown && sessionFactory != null) {
+            checkpointTask = MaintenanceScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    checkpoint();
+                }
+            }, Math.max(config.getCoalesceWindow() / 2, MIN_CHECKPOINT_INTERVAL));
+        }
+    }
+
+    private void endWrite(String path) {
+        synchronized (getLock(path)) {
+            AtomicInteger count = activeWrites.get(path);
+            if (count != null && count.decrementAndGet() <= 0) {
+                activeWrites.remove(path);
+            }
+        }
+    }
+
+    private Object getLock(String path) {
+        return locks[(path.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private boolean shouldCheckin(VersioningPolicy policy, String path, boolean parentCheckpoint) {
+        switch (policy) {
+            case all:
+                return true;
+            case coalesce:
+                if (!parentCheckpoint) {
+                    return true;
+                }
+                Long lastCheckin = lastCheckins.get(path);
+                return lastCheckin == null || System.currentTimeMillis() - lastCheckin >= config.getCoalesceWindow();
+            case leaf:
+                return !parentCheckpoint;
+            default:
+                return false;
+        }
+    }
+
+    private void pruneCheckins() {
+        long cutoff = System.currentTimeMillis() - config.getCoalesceWindow();
+        Iterator<Long> iterator = lastCheckins.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < cutoff) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getVersionCount() {
+        return versionCount.get();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public long getTrailingCount() {
+        return trailingCount.get();
+    }
+
+    public double getWriteAmplification() {
+        long writes = writeCount.get();
+        if (writes == 0) {
+            return 0;
+        }
+        return (double) versionCount.get() / writes;
+    }
+
+}
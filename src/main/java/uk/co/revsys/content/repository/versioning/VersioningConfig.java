@@ -0,0 +1,54 @@
+package uk.co.revsys.content.repository.versioning;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class VersioningConfig {
+
+    private VersioningPolicy defaultPolicy = VersioningPolicy.all;
+    private Map<String, VersioningPolicy> workspacePolicies = new HashMap<String, VersioningPolicy>();
+    private Map<String, VersioningPolicy> contentTypePolicies = new HashMap<String, VersioningPolicy>();
+    private long coalesceWindow = 60000;
+    private VersionRetention retention = new VersionRetention();
+
+    public VersioningPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    public void setDefaultPolicy(VersioningPolicy defaultPolicy) {
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    public Map<String, VersioningPolicy> getWorkspacePolicies() {
+        return workspacePolicies;
+    }
+
+    public void setWorkspacePolicies(Map<String, VersioningPolicy> workspacePolicies) {
+        this.workspacePolicies = workspacePolicies;
+    }
+
+    public Map<String, VersioningPolicy> getContentTypePolicies() {
+        return contentTypePolicies;
+    }
+
+    public void setContentTypePolicies(Map<String, VersioningPolicy> contentTypePolicies) {
+        this.contentTypePolicies = contentTypePolicies;
+    }
+
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    public void setCoalesceWindow(long coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    public VersionRetention getRetention() {
+        return retention;
+    }
+
+    public void setRetention(VersionRetention retention) {
+        this.retention = retention;
+    }
+
+}
@@ -0,0 +1,8 @@
+package uk.co.revsys.content.repository.versioning;
+
+public enum VersioningPolicy {
+    all,
+    coalesce,
+    leaf,
+    none;
+}
@@ -1,13 +1,17 @@
 package uk.co.revsys.content.repository;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
+import javax.jcr.query.InvalidQueryException;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.Subject;
 import org.apache.tika.io.IOUtils;
@@ -21,13 +25,30 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import uk.co.revsys.content.repository.binary.BinaryContent;
+import uk.co.revsys.content.repository.binary.ByteRange;
+import uk.co.revsys.content.repository.binary.FileSystemBinaryStore;
+import uk.co.revsys.content.repository.cache.NodeCache;
+import uk.co.revsys.content.repository.model.BatchOperation;
+import uk.co.revsys.content.repository.model.BatchResult;
 import uk.co.revsys.content.repository.model.Binary;
 import uk.co.revsys.content.repository.model.BinaryNode;
+import uk.co.revsys.content.repository.model.Change;
+import uk.co.revsys.content.repository.model.ChangeFeed;
 import uk.co.revsys.content.repository.model.ContainerNode;
 import uk.co.revsys.content.repository.model.ContentNode;
+import uk.co.revsys.content.repository.model.ContentQuery;
+import uk.co.revsys.content.repository.model.Facets;
+import uk.co.revsys.content.repository.model.PropertyChange;
+import uk.co.revsys.content.repository.model.DeletionJob;
 import uk.co.revsys.content.repository.model.SearchResult;
 import uk.co.revsys.content.repository.model.Status;
+import uk.co.revsys.content.repository.model.Upload;
 import uk.co.revsys.content.repository.model.Version;
+import uk.co.revsys.content.repository.search.SearchResultCollector;
+import uk.co.revsys.content.repository.session.SessionPool;
+import uk.co.revsys.content.repository.versioning.VersionPruner;
+import uk.co.revsys.content.repository.versioning.VersioningPolicy;
 import uk.co.revsys.user.manager.model.User;
 import uk.co.revsys.user.manager.test.util.AbstractShiroTest;
 
@@ -103,6 +124,21 @@ public class ContentRepositoryServiceImplTest extends AbstractShiroTest {
         assertEquals("Test Item 1", contentNode.getProperties().get("name"));
         assertEquals("value1", contentNode.getProperties().get("property1"));
         assertEquals("tag1, tag2", contentNode.getTags());
+        // Project selected fields
+        contentNode = (ContentNode) repository.get("abc/Test_Item_1", false, 0, 0, Projection.parse("modified,properties.property1", false));
+        assertEquals("value1", contentNode.getProperties().get("property1"));
+        assertNull(contentNode.getProperties().get("name"));
+        assertNull(contentNode.getChildren());
+        assertNull(contentNode.getCreatedBy());
+        assertNotNull(contentNode.getModified());
+        // Repeated reads are served from the node cache
+        NodeCache nodeCache = ((ContentRepositoryServiceImpl) repository).getNodeCache();
+        long hits = nodeCache.getHitCount();
+        contentNode = (ContentNode) repository.get("abc/Test_Item_1", false);
+        assertEquals(hits + 1, nodeCache.getHitCount());
+        contentNode.getProperties().put("property1", "changed");
+        contentNode = (ContentNode) repository.get("abc/Test_Item_1", false);
+        assertEquals("value1", contentNode.getProperties().get("property1"));
         // Get root node
         ContainerNode rootNode = (ContainerNode) repository.get("", false);
         assertEquals("/", rootNode.getPath());
@@ -133,12 +169,79 @@ public class ContentRepositoryServiceImplTest extends AbstractShiroTest {
         assertEquals(2, containerNode.getChildren().size());
         containerNode = (ContainerNode) repository.get("abc", true);
         assertEquals(1, containerNode.getChildren().size());
+        containerNode = (ContainerNode) repository.get("abc", false, 1, 1);
+        assertEquals(1, containerNode.getChildren().size());
+        assertEquals("Test_Item_2", containerNode.getChildren().get(0).getName());
+        assertEquals(2, containerNode.getChildCount().longValue());
+        containerNode = (ContainerNode) repository.get("abc", true, 0, 1);
+        assertEquals(1, containerNode.getChildCount().longValue());
+        // Fetch a subtree in one call
+        rootNode = (ContainerNode) repository.getTree("", false, 2);
+        containerNode = (ContainerNode) rootNode.getChildren().get(0).getNode();
+        assertEquals("/abc", containerNode.getPath());
+        assertEquals("Test_Item_2", containerNode.getChildren().get(1).getNode().getName());
         startPartial = new Date();
         List<SearchResult> results = repository.find("value2", false, 0, 2);
         System.out.println("Search: " + (new Date().getTime() - startPartial.getTime()));
         System.out.println(new ObjectMapper().writeValueAsString(results));
         assertEquals(1, results.size());
         assertEquals("Test_Item_1", results.get(0).getNode().getName());
+        // Stream search results
+        SearchResultCollector collector = new SearchResultCollector();
+        repository.find("value2", false, 0, 0, collector);
+        assertEquals(1, collector.getResults().size());
+        assertTrue(((ContentRepositoryServiceImpl) repository).getPreparedQueryCache().getHitCount() > 0);
+        // Page through search results with a cursor
+        collector = new SearchResultCollector();
+        String cursor = repository.findAfter("Test", false, null, 1, collector);
+        assertNotNull(cursor);
+        String firstPath = collector.getResults().get(0).getNode().getPath();
+        collector = new SearchResultCollector();
+        repository.findAfter("Test", false, cursor, 1, collector);
+        assertEquals(1, collector.getResults().size());
+        assertFalse(firstPath.equals(collector.getResults().get(0).getNode().getPath()));
+        // Public searches only return published nodes
+        results = repository.find("value2", true, 0, 1);
+        assertEquals(1, results.size());
+        assertEquals(Status.published, results.get(0).getNode().getStatus());
+        // Structured queries
+        ContentQuery contentQuery = new ContentQuery();
+        contentQuery.setPath("abc");
+        contentQuery.setContentType("rcr/test");
+        contentQuery.setOrderBy(Projection.CREATED);
+        contentQuery.setOrder(ContentQuery.Order.desc);
+        results = repository.query(contentQuery, false);
+        assertEquals(2, results.size());
+        assertEquals("Test_Item_2", results.get(0).getNode().getName());
+        results = repository.query(contentQuery, true);
+        assertEquals(1, results.size());
+        assertEquals("Test_Item_1", results.get(0).getNode().getName());
+        // Tag lookups
+        List<String> tags = new LinkedList<String>();
+        tags.add("tag1");
+        tags.add("tag3");
+        assertEquals("/abc/Test_Item_1", repository.findTagged(tags, true).get(0));
+        assertEquals(1, repository.getTagCounts().get("tag3").intValue());
+        contentQuery.setTags(tags);
+        assertEquals(1, repository.query(contentQuery, false).size());
+        ContentQuery unsafeQuery = new ContentQuery();
+        unsafeQuery.getProperties().put("a] IS NOT NULL OR [b", "c");
+        try {
+            repository.query(unsafeQuery, false);
+            fail("Expected invalid query exception to be thrown");
+        } catch (InvalidQueryException ex) {
+
+        }
+        // Facet counts
+        contentQuery = new ContentQuery();
+        contentQuery.setPath("abc");
+        contentQuery.setLimit(1);
+        contentQuery.getFacets().add("status");
+        collector = new SearchResultCollector();
+        Facets facets = repository.query(contentQuery, false, collector);
+        assertEquals(1, collector.getResults().size());
+        assertEquals(1, facets.getCounts().get("status").get("draft").longValue());
+        assertFalse(facets.isTruncated());
         // Delete Test Item 2
         startPartial = new Date();
         repository.delete("abc/Test_Item_2");
@@ -154,6 +257,22 @@ public class ContentRepositoryServiceImplTest extends AbstractShiroTest {
         // Get Versions
         List<Version> versions = repository.getVersionHistory("abc/Test_Item_1");
         assertEquals(2, versions.size());
+        assertEquals(2, repository.getVersionCount("abc/Test_Item_1"));
+        versions = repository.getVersionHistory("abc/Test_Item_1", 1, 1);
+        assertEquals(1, versions.size());
+        assertEquals("jcr:rootVersion", versions.get(0).getName());
+        // Read and compare historical versions
+        String latestVersion = repository.getVersionHistory("abc/Test_Item_1", 0, 1).get(0).getName();
+        contentNode = repository.getVersion("abc/Test_Item_1", latestVersion);
+        assertEquals("/abc/Test_Item_1", contentNode.getPath());
+        assertEquals("value2", contentNode.getProperties().get("property1"));
+        boolean propertyAdded = false;
+        for (PropertyChange change : repository.diffVersions("abc/Test_Item_1", "jcr:rootVersion", latestVersion)) {
+            if (change.getName().equals("property1")) {
+                propertyAdded = change.getType() == PropertyChange.Type.added;
+            }
+        }
+        assertTrue(propertyAdded);
         // Save binary
         startPartial = new Date();
         Binary binary = new Binary();
@@ -174,6 +293,34 @@ public class ContentRepositoryServiceImplTest extends AbstractShiroTest {
         System.out.println("Get binary: " + (new Date().getTime() - startPartial.getTime()));
         assertEquals("text/plain", binary.getMimeType());
         assertEquals("This is a test", IOUtils.toString(binary.getContent()));
+        binary.getContent().close();
+        // Retrieve part of a binary
+        BinaryContent binaryContent = repository.openBinary("abc/test.txt");
+        assertEquals(14, binaryContent.getSize());
+        assertEquals(40, binaryContent.getHash().length());
+        assertNotNull(binaryContent.getLastModified());
+        assertEquals(BinaryContent.Transfer.stream, binaryContent.getTransfer());
+        ByteRange byteRange = ByteRange.parse("bytes=5-6", binaryContent.getSize());
+        assertEquals("is", IOUtils.toString(binaryContent.getStream(byteRange.getOffset(), byteRange.getLength())));
+        binaryContent.close();
+        assertEquals(10, ByteRange.parse("bytes=-4", 14).getOffset());
+        assertFalse(ByteRange.parse("bytes=20-", 14).isSatisfiable());
+        assertNull(ByteRange.parse("bytes=0-1,4-5", 14));
+        // Resolve binaries held in a file system binary store
+        File storeDirectory = new File(System.getProperty("java.io.tmpdir"), "binary-store-" + System.currentTimeMillis());
+        String hash = binaryContent.getHash();
+        File storedFile = new File(storeDirectory, hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash.substring(4, 6) + "/" + hash);
+        try {
+            storedFile.getParentFile().mkdirs();
+            FileOutputStream storedOutput = new FileOutputStream(storedFile);
+            storedOutput.write("This is a test".getBytes());
+            storedOutput.close();
+            FileSystemBinaryStore binaryStore = new FileSystemBinaryStore(storeDirectory.getPath());
+            assertEquals(storedFile, binaryStore.getFile(hash, 14));
+            assertNull(binaryStore.getFile(hash, 15));
+        } finally {
+            deleteDirectory(storeDirectory);
+        }
         results = repository.find("test.txt", false, 0, 0);
         System.out.println(new ObjectMapper().writeValueAsString(results));
         assertEquals(1, results.size());
@@ -200,10 +347,195 @@ public class ContentRepositoryServiceImplTest extends AbstractShiroTest {
         repository.delete("abc/Test_Item_1/Sub_Item_1");
         contentNode = (ContentNode) repository.get("abc/Test_Item_1", false);
         assertEquals(0, contentNode.getChildren().size());
+        // Apply several writes in one batch
+        List<BatchOperation> operations = new LinkedList<BatchOperation>();
+        for (int i = 1; i <= 3; i++) {
+            BatchOperation operation = new BatchOperation();
+            operation.setType(BatchOperation.Type.create);
+            operation.setPath("batch");
+            operation.setName("Batch_Item_" + i);
+            operation.setContentType("rcr/test");
+            operations.add(operation);
+        }
+        BatchOperation updateOperation = new BatchOperation();
+        updateOperation.setType(BatchOperation.Type.update);
+        updateOperation.setPath("batch/Batch_Item_1");
+        updateOperation.setStatus(Status.draft);
+        operations.add(updateOperation);
+        BatchOperation deleteOperation = new BatchOperation();
+        deleteOperation.setType(BatchOperation.Type.delete);
+        deleteOperation.setPath("batch/Batch_Item_3");
+        operations.add(deleteOperation);
+        BatchResult batchResult = repository.batch(operations);
+        assertEquals(3, batchResult.getCreated());
+        assertEquals(1, batchResult.getSaves());
+        containerNode = (ContainerNode) repository.get("batch", false);
+        assertEquals(2, containerNode.getChildren().size());
+        assertEquals(Status.draft, repository.get("batch/Batch_Item_1", false).getStatus());
+        // A failed batch reports the operation that failed and discards what was not saved
+        operations = new LinkedList<BatchOperation>();
+        BatchOperation createOperation = new BatchOperation();
+        createOperation.setType(BatchOperation.Type.create);
+        createOperation.setPath("batch");
+        createOperation.setName("Batch_Item_4");
+        createOperation.setContentType("rcr/test");
+        operations.add(createOperation);
+        BatchOperation missingOperation = new BatchOperation();
+        missingOperation.setType(BatchOperation.Type.update);
+        missingOperation.setPath("batch/Batch_Item_Missing");
+        missingOperation.setStatus(Status.draft);
+        operations.add(missingOperation);
+        try {
+            repository.batch(operations);
+            fail("Expected BatchException to be thrown");
+        } catch (BatchException ex) {
+            assertEquals(1, ex.getResult().getFailedIndex());
+            assertEquals(0, ex.getResult().getSaves());
+        }
+        containerNode = (ContainerNode) repository.get("batch", false);
+        assertEquals(2, containerNode.getChildren().size());
+        repository.update("batch/Batch_Item_1", Status.published, "", new HashMap<String, String>());
+        // Sessions are pooled
+        SessionPool readSessionPool = ((ContentRepositoryServiceImpl) repository).getReadSessionPool();
+        assertEquals(0, readSessionPool.getActiveCount());
+        assertTrue(readSessionPool.getBorrowCount() > readSessionPool.getCreatedCount());
+        ((ContentRepositoryServiceImpl) repository).close();
         // Using an alternative workspace
         repository = new ContentRepositoryServiceImpl("other");
         rootNode = (ContainerNode) repository.get("", false);
         assertEquals("/", rootNode.getPath());
+        assertTrue(JCRFactory.getWorkspaceRegistry().isKnown("other"));
+        // Child inserts do not version the parent under the leaf policy
+        ContentRepositoryConfig config = new ContentRepositoryConfig();
+        config.getVersioningConfig().setDefaultPolicy(VersioningPolicy.leaf);
+        repository = new ContentRepositoryServiceImpl("other", config);
+        repository.create("", "Leaf_Parent", Status.published, "", "rcr/test", properties2);
+        repository.create("Leaf_Parent", "Leaf_Child", Status.published, "", "rcr/test", properties2);
+        assertEquals(1, repository.getVersionHistory("Leaf_Parent").size());
+        assertEquals(0, ((ContentRepositoryServiceImpl) repository).getVersioner().getVersionCount());
+        // Large subtrees are deleted in the background
+        assertNull(repository.scheduleDelete("Leaf_Parent/Leaf_Child"));
+        config = new ContentRepositoryConfig();
+        config.setBackgroundDeleteThreshold(1);
+        repository = new ContentRepositoryServiceImpl("other", config);
+        repository.create("Leaf_Parent", "Leaf_Child", Status.published, "", "rcr/test", properties2);
+        DeletionJob deletionJob = repository.scheduleDelete("Leaf_Parent");
+        assertNotNull(deletionJob);
+        assertEquals(deletionJob, repository.getDeletionJob(deletionJob.getId()));
+        rootNode = (ContainerNode) repository.get("", false);
+        assertEquals(0, rootNode.getChildren().size());
+        // Trashed content cannot be read while it waits to be purged
+        try {
+            repository.get("rcr:trash/" + deletionJob.getId(), true);
+            fail("Expected path not found exception to be thrown");
+        } catch (PathNotFoundException ex) {
+
+        }
+        try {
+            repository.get("Leaf_Parent/../rcr:trash", false);
+            fail("Expected path not found exception to be thrown");
+        } catch (PathNotFoundException ex) {
+
+        }
+        // Cancelled deletions stay cancelled rather than being picked up by the next sweep
+        config = new ContentRepositoryConfig();
+        config.setBackgroundDeleteThreshold(1);
+        config.setDeleteBatchSize(1);
+        config.setTrashSweepInterval(0);
+        repository = new ContentRepositoryServiceImpl("other", config);
+        repository.create("", "Cancel_Parent", Status.published, "", "rcr/test", properties2);
+        for (int i = 0; i < 50; i++) {
+            repository.create("Cancel_Parent", "Cancel_Child_" + i, Status.published, "", "rcr/test", properties2);
+        }
+        deletionJob = repository.scheduleDelete("Cancel_Parent");
+        assertEquals(deletionJob, repository.cancelDeletion(deletionJob.getId()));
+        for (int i = 0; i < 500 && deletionJob.getFinished() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(DeletionJob.State.cancelled, deletionJob.getState());
+        ((ContentRepositoryServiceImpl) repository).getBackgroundDeleter().sweep();
+        assertSame(deletionJob, repository.getDeletionJob(deletionJob.getId()));
+        assertEquals(DeletionJob.State.cancelled, repository.getDeletionJob(deletionJob.getId()).getState());
+        repository = new ContentRepositoryServiceImpl("other", config);
+        ((ContentRepositoryServiceImpl) repository).getBackgroundDeleter().sweep();
+        assertEquals(DeletionJob.State.cancelled, repository.getDeletionJob(deletionJob.getId()).getState());
+        // Follow the change feed
+        config = new ContentRepositoryConfig();
+        config.setChangeFeedDelay(0);
+        repository = new ContentRepositoryServiceImpl("other", config);
+        ChangeFeed changeFeed = repository.getChanges(0, 0);
+        repository.create("", "Feed_Item", Status.published, "", "rcr/test", properties2);
+        changeFeed = repository.getChanges(changeFeed.getNext(), 0);
+        assertEquals(1, changeFeed.getChanges().size());
+        assertEquals(Change.Type.created, changeFeed.getChanges().get(0).getType());
+        assertEquals("/Feed_Item", changeFeed.getChanges().get(0).getPath());
+        assertEquals(0, repository.getChanges(changeFeed.getNext(), 0).getChanges().size());
+        // Change log entries are only readable through the feed
+        try {
+            repository.get("rcr:changes", true);
+            fail("Expected path not found exception to be thrown");
+        } catch (PathNotFoundException ex) {
+
+        }
+        try {
+            repository.getTree("rcr:changes", true, 3);
+            fail("Expected path not found exception to be thrown");
+        } catch (PathNotFoundException ex) {
+
+        }
+        // Prune versions beyond the retention policy
+        config = new ContentRepositoryConfig();
+        config.getVersioningConfig().setCoalesceWindow(0);
+        config.getVersioningConfig().getRetention().setKeepLast(1);
+        config.getVersioningConfig().getRetention().setKeepDaily(false);
+        config.getVersioningConfig().getRetention().setPruneInterval(0);
+        config.getVersioningConfig().getRetention().setPruneDelay(0);
+        repository = new ContentRepositoryServiceImpl("other", config);
+        repository.create("", "Pruned_Item", Status.published, "", "rcr/test", properties2);
+        repository.update("Pruned_Item", Status.published, "", properties2);
+        repository.update("Pruned_Item", Status.published, "", properties2);
+        long versionCount = repository.getVersionCount("Pruned_Item");
+        assertTrue(versionCount > 2);
+        VersionPruner versionPruner = ((ContentRepositoryServiceImpl) repository).getVersionPruner();
+        assertEquals(versionCount - 2, versionPruner.prune());
+        assertEquals(2, repository.getVersionCount("Pruned_Item"));
+        assertTrue(versionPruner.getReclaimedBytes() > 0);
+        ((ContentRepositoryServiceImpl) repository).close();
+        // Spool uploads to disk before saving them
+        config = new ContentRepositoryConfig();
+        config.setSpoolUploads(true);
+        repository = new ContentRepositoryServiceImpl("other", config);
+        binary = new Binary();
+        binary.setName("spooled.txt");
+        binary.setMimeType("text/plain");
+        binary.setContent(new ByteArrayInputStream("This is spooled".getBytes()));
+        repository.saveBinary("", "", binary);
+        binary = repository.getBinary("spooled.txt");
+        assertEquals("This is spooled", IOUtils.toString(binary.getContent()));
+        binary.getContent().close();
+        // Upload a binary in chunks
+        Upload upload = repository.initiateUpload("", "chunked.txt", "text/plain", "");
+        repository.uploadChunk(upload.getId(), 1, new ByteArrayInputStream("chunks".getBytes()));
+        upload = repository.uploadChunk(upload.getId(), 0, new ByteArrayInputStream("Uploaded in ".getBytes()));
+        assertEquals(2, upload.getChunks().size());
+        assertEquals(18, upload.getSize());
+        binaryNode = repository.commitUpload(upload.getId());
+        assertEquals("/chunked.txt", binaryNode.getPath());
+        assertNull(repository.getUpload(upload.getId()));
+        binary = repository.getBinary("chunked.txt");
+        assertEquals("Uploaded in chunks", IOUtils.toString(binary.getContent()));
+        binary.getContent().close();
+        ((ContentRepositoryServiceImpl) repository).close();
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
     }
 
 }